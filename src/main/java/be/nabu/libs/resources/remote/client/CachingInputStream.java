@@ -0,0 +1,121 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.client;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies everything that is read into a temporary file which is committed to the disk cache once the stream is fully consumed
+ * If the stream is closed before the end is reached, the partial copy is thrown away
+ */
+class CachingInputStream extends FilterInputStream {
+
+	private DiskCache cache;
+	private String hash;
+	private File temporary;
+	private OutputStream output;
+	private boolean done;
+
+	CachingInputStream(InputStream input, DiskCache cache, String hash) throws IOException {
+		super(input);
+		this.cache = cache;
+		this.hash = hash;
+		this.temporary = cache.newTemporary(hash);
+		this.output = new BufferedOutputStream(new FileOutputStream(temporary));
+	}
+
+	@Override
+	public int read() throws IOException {
+		int read = super.read();
+		if (read < 0) {
+			finish();
+		}
+		else if (output != null) {
+			output.write(read);
+		}
+		return read;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = super.read(b, off, len);
+		if (read < 0) {
+			finish();
+		}
+		else if (output != null) {
+			output.write(b, off, read);
+		}
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		// skipping would leave holes in the cached copy
+		abandon();
+		return super.skip(n);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		}
+		finally {
+			if (!done) {
+				abandon();
+			}
+		}
+	}
+
+	private void finish() throws IOException {
+		if (output != null && !done) {
+			done = true;
+			output.close();
+			output = null;
+			try {
+				cache.commit(temporary, hash);
+			}
+			finally {
+				temporary.delete();
+			}
+		}
+	}
+
+	private void abandon() throws IOException {
+		if (output != null) {
+			try {
+				output.close();
+			}
+			finally {
+				output = null;
+				temporary.delete();
+			}
+		}
+	}
+}
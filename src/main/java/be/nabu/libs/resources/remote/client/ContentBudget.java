@@ -0,0 +1,150 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.client;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A process wide budget for the content that remote items keep in memory
+ * Once the budget (system property "resources.remote.maxMemory" in bytes, a quarter of the max heap by default) is exceeded, the least recently used content is dropped
+ * Items are only weakly referenced, an item that is replaced by a reload is released once it is garbage collected instead of holding on to its share of the budget
+ */
+class ContentBudget {
+
+	private static volatile ContentBudget instance;
+
+	static ContentBudget getInstance() {
+		if (instance == null) {
+			synchronized(ContentBudget.class) {
+				if (instance == null) {
+					String maxMemory = System.getProperty("resources.remote.maxMemory");
+					instance = new ContentBudget(maxMemory == null ? Runtime.getRuntime().maxMemory() / 4 : Long.parseLong(maxMemory));
+				}
+			}
+		}
+		return instance;
+	}
+
+	private long maxSize, size;
+	// access ordered: item > bytes held
+	private LinkedHashMap<Key, Integer> items = new LinkedHashMap<Key, Integer>(16, 0.75f, true);
+	private ReferenceQueue<RemoteItem> collected = new ReferenceQueue<RemoteItem>();
+
+	ContentBudget(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	void register(RemoteItem item, int bytes) {
+		List<RemoteItem> evicted;
+		synchronized(this) {
+			expunge();
+			Integer previous = items.put(new Key(item, collected), bytes);
+			if (previous != null) {
+				size -= previous;
+			}
+			size += bytes;
+			evicted = evict(item);
+		}
+		// the items are notified outside of the lock
+		for (RemoteItem remoteItem : evicted) {
+			remoteItem.evict();
+		}
+	}
+
+	synchronized void touch(RemoteItem item) {
+		items.get(new Key(item, null));
+	}
+
+	synchronized void release(RemoteItem item) {
+		Integer previous = items.remove(new Key(item, null));
+		if (previous != null) {
+			size -= previous;
+		}
+	}
+
+	synchronized long getSize() {
+		expunge();
+		return size;
+	}
+
+	/**
+	 * Drops the items that were garbage collected
+	 */
+	private void expunge() {
+		Reference<? extends RemoteItem> reference;
+		while ((reference = collected.poll()) != null) {
+			Integer previous = items.remove(reference);
+			if (previous != null) {
+				size -= previous;
+			}
+		}
+	}
+
+	private List<RemoteItem> evict(RemoteItem keep) {
+		List<RemoteItem> evicted = new ArrayList<RemoteItem>();
+		Iterator<Map.Entry<Key, Integer>> iterator = items.entrySet().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			Map.Entry<Key, Integer> entry = iterator.next();
+			RemoteItem item = entry.getKey().get();
+			// the item that was just registered is the most recently used, but it may be bigger than the budget on its own
+			if (item == keep) {
+				continue;
+			}
+			iterator.remove();
+			size -= entry.getValue();
+			if (item != null) {
+				evicted.add(item);
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * A weak reference that compares by the identity of the item
+	 */
+	private static class Key extends WeakReference<RemoteItem> {
+		private int hash;
+
+		public Key(RemoteItem item, ReferenceQueue<RemoteItem> queue) {
+			super(item, queue);
+			this.hash = System.identityHashCode(item);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (object == this) {
+				return true;
+			}
+			// once collected, a key is only equal to itself
+			RemoteItem item = get();
+			return object instanceof Key && item != null && item == ((Key) object).get();
+		}
+	}
+}
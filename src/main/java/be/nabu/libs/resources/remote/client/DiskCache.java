@@ -0,0 +1,222 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.client;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A disk cache for remote content, the files are named after the hash of their content
+ * The cache is bounded by the system properties "resource.rest.cache.maxSize" (bytes) and "resource.rest.cache.maxEntries", the least recently used files are evicted first
+ * Files are written to a temporary file and moved in place so other processes sharing the folder never see partial content
+ * The last modified of a file is used as its last access time, which allows the ordering to survive a restart and be shared between processes
+ */
+class DiskCache {
+
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	private static Map<String, DiskCache> caches = new HashMap<String, DiskCache>();
+
+	static DiskCache getInstance(String location) {
+		synchronized(caches) {
+			DiskCache cache = caches.get(location);
+			if (cache == null) {
+				String maxSize = System.getProperty("resource.rest.cache.maxSize");
+				String maxEntries = System.getProperty("resource.rest.cache.maxEntries");
+				cache = new DiskCache(new File(location), maxSize == null ? Long.MAX_VALUE : Long.parseLong(maxSize), maxEntries == null ? Integer.MAX_VALUE : Integer.parseInt(maxEntries));
+				caches.put(location, cache);
+			}
+			return cache;
+		}
+	}
+
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private File folder;
+	private long maxSize, size;
+	private int maxEntries;
+	// access ordered: hash > size
+	private LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+	DiskCache(File folder, long maxSize, int maxEntries) {
+		this.folder = folder;
+		this.maxSize = maxSize;
+		this.maxEntries = maxEntries;
+		index();
+	}
+
+	/**
+	 * Builds the index from the files that are already in the folder, the oldest ones are the first to go
+	 */
+	private void index() {
+		if (!folder.exists()) {
+			folder.mkdirs();
+		}
+		File [] files = folder.listFiles();
+		if (files == null) {
+			return;
+		}
+		List<File> list = new ArrayList<File>(Arrays.asList(files));
+		list.sort(new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		synchronized(this) {
+			for (File file : list) {
+				if (!file.isFile()) {
+					continue;
+				}
+				// leftovers from an interrupted write
+				if (file.getName().endsWith(TEMPORARY_SUFFIX)) {
+					// another process may still be writing it
+					if (file.lastModified() < System.currentTimeMillis() - 1000l*60*60) {
+						file.delete();
+					}
+					continue;
+				}
+				entries.put(file.getName(), file.length());
+				size += file.length();
+			}
+			evict(null);
+		}
+	}
+
+	/**
+	 * Returns the cached file for the hash or null if we don't have it
+	 */
+	File get(String hash) {
+		File file = new File(folder, hash);
+		if (!file.isFile()) {
+			synchronized(this) {
+				Long removed = entries.remove(hash);
+				if (removed != null) {
+					size -= removed;
+				}
+			}
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis());
+		synchronized(this) {
+			// another process may have added it
+			if (entries.get(hash) == null) {
+				entries.put(hash, file.length());
+				size += file.length();
+				// the caller is about to read it
+				evict(hash);
+			}
+		}
+		return file;
+	}
+
+	void put(String hash, byte [] content) throws IOException {
+		// it would be evicted straight away
+		if (content.length > maxSize) {
+			return;
+		}
+		File temporary = newTemporary(hash);
+		try {
+			OutputStream output = new BufferedOutputStream(new FileOutputStream(temporary));
+			try {
+				output.write(content);
+			}
+			finally {
+				output.close();
+			}
+			commit(temporary, hash);
+		}
+		finally {
+			temporary.delete();
+		}
+	}
+
+	File newTemporary(String hash) throws IOException {
+		if (!folder.exists()) {
+			folder.mkdirs();
+		}
+		return File.createTempFile(hash, TEMPORARY_SUFFIX, folder);
+	}
+
+	/**
+	 * Moves a fully written temporary file in place, a file that is larger than the cache itself is discarded
+	 */
+	void commit(File temporary, String hash) throws IOException {
+		if (temporary.length() > maxSize) {
+			temporary.delete();
+			return;
+		}
+		File target = new File(folder, hash);
+		try {
+			Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		synchronized(this) {
+			Long previous = entries.put(hash, target.length());
+			if (previous != null) {
+				size -= previous;
+			}
+			size += target.length();
+			evict(hash);
+		}
+	}
+
+	synchronized void remove(String hash) {
+		Long removed = entries.remove(hash);
+		if (removed != null) {
+			size -= removed;
+		}
+		new File(folder, hash).delete();
+	}
+
+	/**
+	 * Evicts the least recently used files until we are within bounds, the file we are handing out is never evicted
+	 */
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+		while ((size > maxSize || entries.size() > maxEntries) && iterator.hasNext()) {
+			Map.Entry<String, Long> entry = iterator.next();
+			if (entry.getKey().equals(keep)) {
+				continue;
+			}
+			iterator.remove();
+			size -= entry.getValue();
+			File file = new File(folder, entry.getKey());
+			if (!file.delete() && file.exists()) {
+				logger.warn("Could not evict cached file: " + file);
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+
+/**
+ * Reads (part of) a file through memory mapped segments so the content does not have to be copied onto the heap as a whole
+ * The segments are mapped one at a time as the container advances, the target buffer is handed slices of them so it reads straight from the mapped memory
+ */
+class MappedReadable implements ReadableContainer<ByteBuffer> {
+
+	private static final long SEGMENT_SIZE = 64l * 1024 * 1024;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private long position, end;
+	private MappedByteBuffer segment;
+
+	MappedReadable(File file, long offset, long length) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.position = Math.min(offset, channel.size());
+		this.end = Math.min(channel.size(), length < 0 ? Long.MAX_VALUE : position + length);
+	}
+
+	MappedReadable(File file) throws IOException {
+		this(file, 0, -1);
+	}
+
+	private boolean next() throws IOException {
+		if (channel == null) {
+			throw new IOException("The container is closed");
+		}
+		if (segment != null && segment.hasRemaining()) {
+			return true;
+		}
+		if (position >= end) {
+			return false;
+		}
+		long size = Math.min(SEGMENT_SIZE, end - position);
+		segment = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		position += size;
+		return true;
+	}
+
+	@Override
+	public long read(ByteBuffer target) throws IOException {
+		long total = 0;
+		while (target.remainingSpace() > 0) {
+			if (!next()) {
+				return total == 0 ? -1 : total;
+			}
+			java.nio.ByteBuffer slice = segment.slice();
+			slice.limit((int) Math.min(target.remainingSpace(), slice.remaining()));
+			long written = target.write(IOUtils.wrap(slice, true));
+			if (written <= 0) {
+				break;
+			}
+			segment.position(segment.position() + (int) written);
+			total += written;
+		}
+		return total;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			segment = null;
+			channel = null;
+			file.close();
+		}
+	}
+}
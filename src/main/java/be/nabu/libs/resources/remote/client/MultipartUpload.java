@@ -0,0 +1,257 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import be.nabu.libs.http.api.HTTPResponse;
+import be.nabu.libs.http.core.DefaultHTTPRequest;
+import be.nabu.libs.resources.URIUtils;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.mime.api.ContentPart;
+import be.nabu.utils.mime.api.ModifiablePart;
+import be.nabu.utils.mime.impl.MimeHeader;
+import be.nabu.utils.mime.impl.PlainMimeContentPart;
+import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
+
+/**
+ * Uploads the written data in parts of a fixed size, at most "parallelism" parts are in flight at any given time
+ * A part that keeps failing is retained so it can be resent once the other parts are done, the server is asked which parts it already has
+ * At most "parallelism" failed parts are retained, once that many have piled up they are resent before any new part is taken on
+ * If less than one part is written, the content is persisted with a single PUT instead
+ */
+class MultipartUpload implements WritableContainer<ByteBuffer> {
+
+	private static final int RETRIES = 3;
+
+	private RemoteWritableItem item;
+	private int partSize;
+	private Semaphore slots;
+	private int parallelism;
+	private ByteArrayOutputStream current = new ByteArrayOutputStream();
+	private byte [] chunk = new byte[8192];
+	private String id;
+	private int parts;
+	private long written;
+	private boolean closed;
+	private List<Future<?>> pending = new ArrayList<Future<?>>();
+	private Map<Integer, byte[]> failed = new TreeMap<Integer, byte[]>();
+
+	MultipartUpload(RemoteWritableItem item, int partSize, int parallelism) {
+		this.item = item;
+		this.partSize = partSize;
+		this.parallelism = Math.max(1, parallelism);
+		this.slots = new Semaphore(this.parallelism);
+	}
+
+	@Override
+	public long write(ByteBuffer buffer) throws IOException {
+		if (closed) {
+			throw new IOException("The upload is closed");
+		}
+		long total = 0;
+		while (true) {
+			int read = buffer.read(chunk, 0, Math.min(chunk.length, partSize - current.size()));
+			if (read <= 0) {
+				break;
+			}
+			current.write(chunk, 0, read);
+			total += read;
+			if (current.size() >= partSize) {
+				submit();
+			}
+		}
+		written += total;
+		return total;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		// parts are sent as soon as they are complete
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		// not enough data for a multipart upload
+		if (id == null) {
+			item.persist(current.toByteArray());
+			return;
+		}
+		try {
+			if (current.size() > 0) {
+				submit();
+			}
+			for (Future<?> future : pending) {
+				future.get();
+			}
+			resume();
+			HTTPResponse response = execute("POST", "uploads/" + id + "?parts=" + parts, null);
+			check(response, "commit");
+			item.size = written;
+			// we did not keep the content and we don't know the new hash
+			item.setContent(null);
+			item.hash = null;
+		}
+		catch (Exception e) {
+			throw abort(e);
+		}
+	}
+
+	private IOException abort(Exception e) {
+		closed = true;
+		try {
+			execute("DELETE", "uploads/" + id, null);
+		}
+		catch (Exception abort) {
+			item.logger.warn("Could not abort upload " + id + " for: " + item.getUri(), abort);
+		}
+		return e instanceof IOException ? (IOException) e : new IOException("Could not upload: " + item.getUri(), e);
+	}
+
+	private void submit() throws IOException {
+		if (id == null) {
+			HTTPResponse response = execute("POST", "upload" + URIUtils.encodeURI(item.getPath()), null);
+			check(response, "start");
+			id = new String(IOUtils.toBytes(((ContentPart) response.getContent()).getReadable()), "UTF-8").trim();
+		}
+		// don't let failed parts pile up in memory
+		boolean retry;
+		synchronized(failed) {
+			retry = failed.size() >= parallelism;
+		}
+		if (retry) {
+			try {
+				resume();
+			}
+			catch (Exception e) {
+				throw abort(e);
+			}
+		}
+		final int part = parts++;
+		final byte [] data = current.toByteArray();
+		current.reset();
+		// wait for a free slot, this keeps the amount of parts in memory bounded
+		try {
+			slots.acquire();
+		}
+		catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		pending.add(RemoteResource.getTransfers().submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					upload(part, data);
+				}
+				catch (Exception e) {
+					item.logger.warn("Could not upload part " + part + " for: " + item.getUri(), e);
+					synchronized(failed) {
+						failed.put(part, data);
+					}
+				}
+				finally {
+					slots.release();
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Resends the parts that failed and are not known to the server
+	 */
+	private void resume() throws Exception {
+		Map<Integer, byte[]> failed;
+		synchronized(this.failed) {
+			if (this.failed.isEmpty()) {
+				return;
+			}
+			failed = new TreeMap<Integer, byte[]>(this.failed);
+			this.failed.clear();
+		}
+		HTTPResponse response = execute("GET", "uploads/" + id, null);
+		check(response, "list parts of");
+		Set<Integer> received = new HashSet<Integer>();
+		String parts = new String(IOUtils.toBytes(((ContentPart) response.getContent()).getReadable()), "UTF-8").trim();
+		if (!parts.isEmpty()) {
+			for (String part : parts.split(",")) {
+				received.add(Integer.parseInt(part.trim()));
+			}
+		}
+		for (Map.Entry<Integer, byte[]> entry : failed.entrySet()) {
+			if (!received.contains(entry.getKey())) {
+				upload(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private void upload(int part, byte [] data) throws Exception {
+		Exception last = null;
+		for (int i = 0; i < RETRIES; i++) {
+			try {
+				check(execute("PUT", "uploads/" + id + "/" + part, data), "upload part " + part + " of");
+				return;
+			}
+			catch (Exception e) {
+				last = e;
+			}
+		}
+		throw last;
+	}
+
+	private HTTPResponse execute(String method, String target, byte [] content) throws IOException {
+		ModifiablePart part = content == null
+			? new PlainMimeEmptyPart(null,
+				new MimeHeader("Content-Length", "0"),
+				item.getHostHeader())
+			: new PlainMimeContentPart(null,
+				IOUtils.wrap(content, true),
+				new MimeHeader("Content-Type", "application/octet-stream"),
+				new MimeHeader("Content-Length", Long.toString(content.length)),
+				item.getHostHeader());
+		try {
+			return item.getClient().execute(new DefaultHTTPRequest(method, item.getRoot() + target, part), item.getPrincipal(), item.isSecure(), false);
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	private void check(HTTPResponse response, String action) throws IOException {
+		if (response.getCode() < 200 || response.getCode() >= 300) {
+			throw new IOException("Could not " + action + " upload for " + item.getUri() + ": " + response.getCode() + " - " + response.getMessage());
+		}
+	}
+}
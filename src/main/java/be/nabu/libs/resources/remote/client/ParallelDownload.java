@@ -0,0 +1,140 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+
+/**
+ * Downloads an item in chunks using concurrent range requests and offers them back in order
+ * At most "parallelism" chunks are in flight or buffered at any given time, so memory usage is bounded by parallelism * chunkSize
+ */
+class ParallelDownload extends InputStream {
+
+	private RemoteItem item;
+	private long size, chunkSize, nextOffset;
+	private int parallelism;
+	private Deque<Future<byte[]>> chunks = new ArrayDeque<Future<byte[]>>();
+	private byte [] current;
+	private int position;
+	private boolean closed;
+
+	ParallelDownload(RemoteItem item, long size, long chunkSize, int parallelism) {
+		this.item = item;
+		this.size = size;
+		this.chunkSize = chunkSize;
+		this.parallelism = parallelism;
+		fill();
+	}
+
+	private void fill() {
+		while (chunks.size() < parallelism && nextOffset < size) {
+			final long offset = nextOffset;
+			final long length = Math.min(chunkSize, size - offset);
+			chunks.add(RemoteResource.getTransfers().submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					ReadableContainer<ByteBuffer> readable = item.getReadable(offset, length);
+					try {
+						byte [] bytes = IOUtils.toBytes(readable);
+						if (bytes.length != length) {
+							throw new IOException("Expected " + length + " bytes at offset " + offset + " but received " + bytes.length + " for: " + item.getUri());
+						}
+						return bytes;
+					}
+					finally {
+						readable.close();
+					}
+				}
+			}));
+			nextOffset += length;
+		}
+	}
+
+	private boolean next() throws IOException {
+		if (closed) {
+			throw new IOException("The download is closed");
+		}
+		while (current == null || position >= current.length) {
+			Future<byte[]> future = chunks.poll();
+			if (future == null) {
+				return false;
+			}
+			try {
+				current = future.get();
+				position = 0;
+			}
+			catch (InterruptedException e) {
+				close();
+				throw new IOException(e);
+			}
+			catch (ExecutionException e) {
+				close();
+				throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+			}
+			// a chunk has been consumed, schedule the next one
+			fill();
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return next() ? current[position++] & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!next()) {
+			return -1;
+		}
+		int amount = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, amount);
+		position += amount;
+		return amount;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return current == null ? 0 : current.length - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			for (Future<byte[]> future : chunks) {
+				future.cancel(true);
+			}
+			chunks.clear();
+			current = null;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import be.nabu.libs.http.api.HTTPResponse;
+import be.nabu.libs.http.core.DefaultHTTPRequest;
+import be.nabu.libs.resources.api.Resource;
+import be.nabu.libs.resources.remote.server.Batch;
+import be.nabu.libs.resources.remote.server.Entry;
+import be.nabu.libs.resources.remote.server.Operation;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.binding.api.Window;
+import be.nabu.libs.types.binding.xml.XMLBinding;
+import be.nabu.libs.types.java.BeanInstance;
+import be.nabu.libs.types.java.BeanResolver;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.mime.api.ContentPart;
+import be.nabu.utils.mime.impl.MimeHeader;
+import be.nabu.utils.mime.impl.PlainMimeContentPart;
+
+/**
+ * Queues operations on a container and sends them to the server in a single request
+ * The paths are relative to the container, once executed the loaded part of the tree is updated with the successful operations
+ */
+public class RemoteBatch {
+
+	private RemoteManageableContainer container;
+	private List<Operation> operations = new ArrayList<Operation>();
+
+	RemoteBatch(RemoteManageableContainer container) {
+		this.container = container;
+	}
+
+	public RemoteBatch mkdir(String path) {
+		return add(new Operation(Operation.MKDIR, path));
+	}
+
+	public RemoteBatch create(String path, String contentType) {
+		Operation operation = new Operation(Operation.CREATE, path);
+		operation.setContentType(contentType);
+		return add(operation);
+	}
+
+	/**
+	 * Only for small content (up to a third of a megabyte by default), the server rejects larger content and it should be written as a regular or multipart upload instead
+	 */
+	public RemoteBatch put(String path, byte [] content) {
+		Operation operation = new Operation(Operation.PUT, path);
+		operation.setContent(content);
+		return add(operation);
+	}
+
+	public RemoteBatch delete(String path) {
+		return add(new Operation(Operation.DELETE, path));
+	}
+
+	public RemoteBatch exists(String path) {
+		return add(new Operation(Operation.EXISTS, path));
+	}
+
+	private RemoteBatch add(Operation operation) {
+		operations.add(operation);
+		return this;
+	}
+
+	public int size() {
+		return operations.size();
+	}
+
+	/**
+	 * Sends the queued operations and returns them in the same order with their result filled in, the queue is emptied
+	 */
+	public List<Operation> execute() throws IOException {
+		if (operations.isEmpty()) {
+			return new ArrayList<Operation>();
+		}
+		List<Operation> operations = this.operations;
+		this.operations = new ArrayList<Operation>();
+		// the server expects paths relative to its root
+		List<Operation> requested = new ArrayList<Operation>();
+		for (Operation operation : operations) {
+			Operation copy = new Operation(operation.getType(), container.getServerPath(operation.getPath()));
+			copy.setContentType(operation.getContentType());
+			copy.setContent(operation.getContent());
+			requested.add(copy);
+		}
+		Batch batch = new Batch();
+		batch.setOperations(requested);
+		XMLBinding binding = new XMLBinding((ComplexType) BeanResolver.getInstance().resolve(Batch.class), Charset.forName("UTF-8"));
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			binding.marshal(output, new BeanInstance<Batch>(batch));
+			byte [] bytes = output.toByteArray();
+			HTTPResponse response = container.getClient().execute(new DefaultHTTPRequest("POST", container.getRoot() + "batch", new PlainMimeContentPart(null, 
+				IOUtils.wrap(bytes, true),
+				new MimeHeader("Content-Type", "application/xml"),
+				new MimeHeader("Content-Length", Integer.toString(bytes.length)),
+				container.getHostHeader()
+			)), container.getPrincipal(), container.isSecure(), false);
+			if (response.getCode() < 200 || response.getCode() >= 300 || !(response.getContent() instanceof ContentPart)) {
+				throw new IOException("Could not execute batch on " + container.getUri() + ": " + response.getCode() + " - " + response.getMessage());
+			}
+			byte [] content = IOUtils.toBytes(((ContentPart) response.getContent()).getReadable());
+			Batch result = TypeUtils.getAsBean(binding.unmarshal(new ByteArrayInputStream(content), new Window[0]), Batch.class);
+			if (result == null || result.getOperations() == null || result.getOperations().size() != operations.size()) {
+				throw new IOException("Invalid batch response from " + container.getUri());
+			}
+			for (int i = 0; i < operations.size(); i++) {
+				Operation operation = operations.get(i);
+				operation.setCode(result.getOperations().get(i).getCode());
+				operation.setMessage(result.getOperations().get(i).getMessage());
+				operation.setExists(result.getOperations().get(i).getExists());
+			}
+			update(operations);
+			return operations;
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Applies the successful operations to the part of the tree that is loaded, one by one in the order the server executed them
+	 */
+	private void update(List<Operation> operations) {
+		for (Operation operation : operations) {
+			if (operation.getCode() == null || operation.getCode() < 200 || operation.getCode() >= 300) {
+				continue;
+			}
+			if (Operation.DELETE.equals(operation.getType())) {
+				container.apply(null, Collections.singletonList(container.getServerPath(operation.getPath())));
+				continue;
+			}
+			boolean directory = Operation.MKDIR.equals(operation.getType()) || (Operation.CREATE.equals(operation.getType()) && Resource.CONTENT_TYPE_DIRECTORY.equals(operation.getContentType()));
+			if (!directory && !Operation.CREATE.equals(operation.getType()) && !Operation.PUT.equals(operation.getType())) {
+				continue;
+			}
+			// the server creates missing parents along the way, existing folders are left alone when applied
+			List<Entry> entries = new ArrayList<Entry>();
+			String [] parts = operation.getPath().replaceAll("^/+", "").split("/");
+			String current = "";
+			for (int i = 0; i < parts.length; i++) {
+				current += (i == 0 ? "" : "/") + parts[i];
+				Entry entry = new Entry();
+				entry.setName(parts[i]);
+				entry.setPath(container.getServerPath(current));
+				entry.setLastModified(new Date());
+				entry.setWritable(true);
+				if (i < parts.length - 1 || directory) {
+					entry.setContentType(Resource.CONTENT_TYPE_DIRECTORY);
+				}
+				else {
+					byte [] content = operation.getContent() == null ? new byte[0] : operation.getContent();
+					String contentType = operation.getContentType() == null ? URLConnection.guessContentTypeFromName(parts[i]) : operation.getContentType();
+					entry.setContentType(contentType == null ? "application/octet-stream" : contentType);
+					entry.setContent(content);
+					entry.setSize((long) content.length);
+				}
+				entries.add(entry);
+			}
+			container.apply(entries, null);
+		}
+	}
+}
@@ -19,33 +19,63 @@ package be.nabu.libs.resources.remote.client;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import be.nabu.libs.http.api.HTTPResponse;
 import be.nabu.libs.http.api.client.ConnectionHandler;
 import be.nabu.libs.http.api.client.HTTPClient;
 import be.nabu.libs.http.core.DefaultHTTPRequest;
 import be.nabu.libs.resources.URIUtils;
+import be.nabu.libs.resources.api.ManageableContainer;
 import be.nabu.libs.resources.api.Resource;
 import be.nabu.libs.resources.api.ResourceContainer;
 import be.nabu.libs.resources.api.features.CacheableResource;
+import be.nabu.libs.resources.remote.server.ArchiveStream;
+import be.nabu.libs.resources.remote.server.Changes;
 import be.nabu.libs.resources.remote.server.Entry;
 import be.nabu.libs.resources.remote.server.Listing;
+import be.nabu.libs.resources.remote.server.ListingCodec;
 import be.nabu.libs.types.TypeUtils;
 import be.nabu.libs.types.binding.api.Window;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.mime.api.ContentPart;
+import be.nabu.utils.mime.api.Header;
 import be.nabu.utils.mime.impl.MimeHeader;
+import be.nabu.utils.mime.impl.MimeUtils;
+import be.nabu.utils.mime.impl.PlainMimeContentPart;
 import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
 
 public class RemoteContainer extends RemoteResource implements ResourceContainer<RemoteResource>, CacheableResource {
 	private boolean cache;
-	private Map<String, RemoteResource> children;
-	protected boolean recursiveList, fullList;
+	// a concurrent map that is replaced as a whole on reload, so readers never need a lock
+	private volatile Map<String, RemoteResource> children;
+	// the version of the listing we received, used to revalidate it after a reset
+	private String version;
+	// if we were loaded as part of a deeper listing of our parent, the version belongs to that listing and is revalidated against it
+	private String subtreeQuery;
+	// the token of the last listing or delta, used to ask the server what changed since then
+	// it is only written under the lock but the watcher reads it without one
+	private volatile String token;
+	private volatile boolean stale;
+	// whether the children came in as part of the listing of the parent, in which case the version of the parent covers them
+	private volatile boolean covered;
+	private volatile Thread watcher;
+	private static final long WATCH_TIMEOUT = 30000, WATCH_RETRY_INTERVAL = 5000;
+	// child containers inherit these from their parent unless they are set explicitly
+	protected Boolean recursiveList, fullList;
+	private Integer listDepth;
+	private Boolean incremental;
+	private SingleFlight<Void> listings = new SingleFlight<Void>(), subtrees = new SingleFlight<Void>();
 
 	RemoteContainer(RemoteContainer parent, String itemName, String contentType, Date lastModified, String path, boolean recursiveList) {
 		super(parent, itemName, contentType, lastModified, path);
@@ -65,59 +95,486 @@ public class RemoteContainer extends RemoteResource implements ResourceContainer
 	}
 	
 	protected Map<String, RemoteResource> getChildren() {
-		if (children == null) {
-			synchronized(this) {
-				if (children == null) {
-					HTTPResponse response = null;
+		Map<String, RemoteResource> children = this.children;
+		if (children == null || stale) {
+			// when browsing level by level, the children of our siblings are fetched in the same request
+			if (children == null && !stale && getListDepth() != null && getParent() instanceof RemoteContainer) {
+				((RemoteContainer) getParent()).loadSubtrees();
+			}
+			// concurrent readers share the request instead of queueing up behind each other
+			try {
+				listings.execute(new Callable<Void>() {
+					@Override
+					public Void call() {
+						load();
+						return null;
+					}
+				});
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			children = this.children;
+			// we were reset in the meantime
+			if (children == null) {
+				return getChildren();
+			}
+		}
+		return children;
+	}
+	
+	/**
+	 * Only the watcher competes for the lock, other readers wait for the shared request
+	 */
+	private synchronized void load() {
+		// the journal only knows about changes made through the server, so we only rely on it alone if asked to
+		if (children != null && stale && token != null && isIncremental() && applyChanges()) {
+			stale = false;
+		}
+		else if (children == null || stale) {
+			String query = getListQuery(getListDepth());
+			String subtreeQuery = children != null && version != null ? this.subtreeQuery : null;
+			try {
+				// revalidate the listing we already have
+				HTTPResponse response = subtreeQuery != null
+					? ((RemoteContainer) getParent()).requestListing(subtreeQuery, version)
+					: requestListing(query, children != null ? version : null);
+				if (response.getCode() == 304 && children != null) {
+					stale = false;
+					restoreChildren(children);
+				}
+				else if (response.getCode() >= 200 && response.getCode() < 300 && response.getContent() instanceof ContentPart) {
+					ListingCodec.Reader reader = openListing(response);
 					try {
-						response = getClient().execute(new DefaultHTTPRequest("GET", getRoot() + "list" + URIUtils.encodeURI(getPath()) + "?recursive=" + recursiveList + "&full=" + fullList, new PlainMimeEmptyPart(null, 
-							new MimeHeader("Content-Length", "0"),
-							new MimeHeader("Accept-Encoding", "gzip"),
-							getHostHeader()
-						)), getPrincipal(), isSecure(), false);
-						
-						if (response.getCode() >= 200 && response.getCode() < 300 && response.getContent() instanceof ContentPart) {
-							
-							byte [] content = IOUtils.toBytes(((ContentPart) response.getContent()).getReadable());
-							Listing listing = TypeUtils.getAsBean(getBinding().unmarshal(new ByteArrayInputStream(content), new Window[0]), Listing.class);
-							loadListing(listing);
+						Listing listing = reader.getListing();
+						if (subtreeQuery == null) {
+							loadListing(reader);
+							this.subtreeQuery = null;
 						}
-						else {
-							throw new RuntimeException("Invalid response code " + response.getCode() + ": " + response.getMessage());
+						// if we are no longer in there, we load our own listing on next access
+						else if (!loadFromSubtree(reader)) {
+							this.children = null;
+							this.subtreeQuery = null;
+							return;
 						}
+						version = listing == null ? null : listing.getVersion();
+						token = listing == null ? null : listing.getToken();
+						covered = false;
 					}
-					catch (Exception e) {
-						throw new RuntimeException("Can not read: " + getRoot() + "list" + URIUtils.encodeURI(getPath()) + "?recursive=" + recursiveList + "&full=" + fullList, e);
+					finally {
+						reader.close();
 					}
+					stale = false;
+				}
+				else {
+					throw new RuntimeException("Invalid response code " + response.getCode() + ": " + response.getMessage());
 				}
 			}
+			catch (Exception e) {
+				throw new RuntimeException("Can not read: " + getRoot() + "list" + URIUtils.encodeURI(getPath()) + query, e);
+			}
 		}
-		return children;
 	}
-
-	private void loadListing(Listing listing) {
-		Map<String, RemoteResource> children = new HashMap<String, RemoteResource>();
-		if (listing != null && listing.getEntries() != null) {
-			for (Entry entry : listing.getEntries()) {
-				if (Resource.CONTENT_TYPE_DIRECTORY.equals(entry.getContentType())) {
-					RemoteContainer container = entry.isWritable() 
-						? new RemoteManageableContainer(this, entry.getName(), entry.getContentType(), entry.getLastModified(), entry.getPath(), recursiveList)
-						: new RemoteContainer(this, entry.getName(), entry.getContentType(), entry.getLastModified(), entry.getPath(), recursiveList);
-					children.put(entry.getName(), container);
-					if (recursiveList) {
-						container.loadListing(entry.getChildren());
+	
+	private String getListQuery(Integer depth) {
+		return "?recursive=" + isRecursiveList() + "&full=" + isFullList() + (depth == null ? "" : "&depth=" + depth);
+	}
+	
+	private HTTPResponse requestListing(String query, String ifNoneMatch) throws Exception {
+		List<Header> headers = new ArrayList<Header>();
+		headers.add(new MimeHeader("Content-Length", "0"));
+		headers.add(new MimeHeader("Accept-Encoding", "gzip"));
+		// prefer the binary format, older servers will simply send xml
+		headers.add(new MimeHeader("Accept", ListingCodec.CONTENT_TYPE + ", application/xml;q=0.9"));
+		headers.add(getHostHeader());
+		if (ifNoneMatch != null) {
+			headers.add(new MimeHeader("If-None-Match", ifNoneMatch));
+		}
+		return getClient().execute(new DefaultHTTPRequest("GET", getRoot() + "list" + URIUtils.encodeURI(getPath()) + query, new PlainMimeEmptyPart(null, 
+			headers.toArray(new Header[headers.size()])
+		)), getPrincipal(), isSecure(), false);
+	}
+	
+	/**
+	 * A binary listing is read straight from the stream so the tree can be built as the entries arrive, xml is parsed in full first
+	 */
+	private ListingCodec.Reader openListing(HTTPResponse response) throws Exception {
+		Header contentType = MimeUtils.getHeader("Content-Type", response.getContent().getHeaders());
+		if (contentType != null && contentType.getValue().trim().toLowerCase().startsWith(ListingCodec.CONTENT_TYPE)) {
+			return ListingCodec.newReader(IOUtils.toInputStream(((ContentPart) response.getContent()).getReadable()));
+		}
+		else {
+			byte [] content = IOUtils.toBytes(((ContentPart) response.getContent()).getReadable());
+			return ListingCodec.newReader(TypeUtils.getAsBean(getBinding().unmarshal(new ByteArrayInputStream(content), new Window[0]), Listing.class));
+		}
+	}
+	
+	/**
+	 * Fetches one level deeper than usual so the child containers that have not been loaded yet all get their children in a single request
+	 * This is only worth it if more than one child still needs loading, otherwise the child simply loads itself
+	 */
+	private void loadSubtrees() {
+		try {
+			// siblings that are accessed at the same time share the request
+			subtrees.execute(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					fetchSubtrees();
+					return null;
+				}
+			});
+		}
+		catch (Exception e) {
+			// the children will load themselves
+			logger.warn("Could not load the subtrees of: " + getUri(), e);
+		}
+	}
+	
+	private void fetchSubtrees() throws Exception {
+		Map<String, RemoteResource> children = this.children;
+		if (children == null) {
+			return;
+		}
+		int unloaded = 0;
+		for (RemoteResource child : children.values()) {
+			if (child instanceof RemoteContainer && ((RemoteContainer) child).children == null) {
+				unloaded++;
+			}
+		}
+		if (unloaded < 2) {
+			return;
+		}
+		String query = getListQuery(getListDepth() + 1);
+		HTTPResponse response = requestListing(query, null);
+		if (response.getCode() < 200 || response.getCode() >= 300 || !(response.getContent() instanceof ContentPart)) {
+			throw new IOException("Invalid response code " + response.getCode() + ": " + response.getMessage());
+		}
+		ListingCodec.Reader reader = openListing(response);
+		try {
+			Listing listing = reader.getListing();
+			Entry entry;
+			while ((entry = reader.next()) != null) {
+				if (entry.getChildren() == null) {
+					continue;
+				}
+				RemoteResource existing = children.get(entry.getName());
+				if (existing instanceof RemoteContainer) {
+					RemoteContainer container = (RemoteContainer) existing;
+					synchronized(container) {
+						// only fill in what is missing, a loaded child may know more than this listing
+						if (container.children == null) {
+							container.loadListing(reader);
+							// like a listing of its own, so it can be revalidated or followed after a reset instead of being dropped
+							container.version = listing == null ? null : listing.getVersion();
+							container.token = listing == null ? null : listing.getToken();
+							container.subtreeQuery = container.version == null ? null : query;
+							container.covered = false;
+							container.stale = false;
+							continue;
+						}
 					}
 				}
+				reader.skip();
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Loads our children from a deeper listing of our parent, returns false if we are not in it
+	 */
+	private boolean loadFromSubtree(ListingCodec.Reader reader) throws IOException {
+		boolean found = false;
+		Entry entry;
+		while ((entry = reader.next()) != null) {
+			if (entry.getChildren() == null) {
+				continue;
+			}
+			if (!found && entry.getName().equals(getName()) && Resource.CONTENT_TYPE_DIRECTORY.equals(entry.getContentType())) {
+				loadListing(reader);
+				found = true;
+			}
+			else {
+				reader.skip();
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Creates the children as the entries are read, each entry can be discarded as soon as its resource exists
+	 */
+	private void loadListing(ListingCodec.Reader reader) throws IOException {
+		// the new children are built off to the side and published in one go
+		Map<String, RemoteResource> children = new ConcurrentHashMap<String, RemoteResource>();
+		Entry entry;
+		while ((entry = reader.next()) != null) {
+			RemoteResource child = newResource(entry);
+			children.put(entry.getName(), child);
+			if (entry.getChildren() != null) {
+				if (child instanceof RemoteContainer) {
+					((RemoteContainer) child).loadListing(reader);
+					((RemoteContainer) child).covered = true;
+				}
 				else {
-					children.put(entry.getName(), entry.isWritable()
-						? new RemoteWritableItem(this, entry.getName(), entry.getContentType(), entry.getLastModified(), entry.getPath(), entry.getSize(), entry.getContent(), entry.getHash())
-						: new RemoteItem(this, entry.getName(), entry.getContentType(), entry.getLastModified(), entry.getPath(), entry.getSize(), entry.getContent(), entry.getHash()));
+					reader.skip();
 				}
 			}
 		}
 		this.children = children;
 	}
 	
+	private RemoteResource newResource(Entry entry) {
+		if (Resource.CONTENT_TYPE_DIRECTORY.equals(entry.getContentType())) {
+			return entry.isWritable() 
+				? new RemoteManageableContainer(this, entry.getName(), entry.getContentType(), entry.getLastModified(), entry.getPath(), isRecursiveList())
+				: new RemoteContainer(this, entry.getName(), entry.getContentType(), entry.getLastModified(), entry.getPath(), isRecursiveList());
+		}
+		else {
+			return entry.isWritable()
+				? new RemoteWritableItem(this, entry.getName(), entry.getContentType(), entry.getLastModified(), entry.getPath(), entry.getSize(), entry.getContent(), entry.getHash())
+				: new RemoteItem(this, entry.getName(), entry.getContentType(), entry.getLastModified(), entry.getPath(), entry.getSize(), entry.getContent(), entry.getHash());
+		}
+	}
+	
+	/**
+	 * Asks the server what changed since our last listing and applies it to the tree we already have
+	 * Returns false if the server can not answer, in which case a full listing is required
+	 */
+	private boolean applyChanges() {
+		try {
+			HTTPResponse response = getClient().execute(new DefaultHTTPRequest("GET", getRoot() + "changes" + URIUtils.encodeURI(getPath()) + "?since=" + URIUtils.encodeURIComponent(token) + "&full=" + isFullList(), new PlainMimeEmptyPart(null, 
+				new MimeHeader("Content-Length", "0"),
+				new MimeHeader("Accept-Encoding", "gzip"),
+				getHostHeader()
+			)), getPrincipal(), isSecure(), false);
+			if (response.getCode() < 200 || response.getCode() >= 300 || !(response.getContent() instanceof ContentPart)) {
+				return false;
+			}
+			byte [] content = IOUtils.toBytes(((ContentPart) response.getContent()).getReadable());
+			Changes changes = TypeUtils.getAsBean(getBinding(Changes.class).unmarshal(new ByteArrayInputStream(content), new Window[0]), Changes.class);
+			if (changes == null || changes.isReset()) {
+				return false;
+			}
+			applyChanges(changes);
+			return true;
+		}
+		catch (Exception e) {
+			logger.warn("Could not retrieve changes for: " + getUri(), e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Fetches the content of all the items in this container that we can not read locally in a single request
+	 * This replaces a request per item for containers that were not listed with full content or that were modified since
+	 */
+	public void prefetch() throws IOException {
+		Map<String, RemoteItem> items = new LinkedHashMap<String, RemoteItem>();
+		for (RemoteResource child : getChildren().values()) {
+			if (child instanceof RemoteItem && ((RemoteItem) child).isPrefetchable()) {
+				items.put(child.getPath().replaceAll("^/+", ""), (RemoteItem) child);
+			}
+		}
+		if (items.isEmpty()) {
+			return;
+		}
+		StringBuilder builder = new StringBuilder();
+		for (String path : items.keySet()) {
+			builder.append(path).append("\n");
+		}
+		byte [] paths = builder.toString().getBytes("UTF-8");
+		try {
+			HTTPResponse response = getClient().execute(new DefaultHTTPRequest("POST", getRoot() + "contents", new PlainMimeContentPart(null, 
+				IOUtils.wrap(paths, true),
+				new MimeHeader("Content-Type", "text/plain; charset=UTF-8"),
+				new MimeHeader("Content-Length", Integer.toString(paths.length)),
+				new MimeHeader("Accept-Encoding", "gzip"),
+				getHostHeader()
+			)), getPrincipal(), isSecure(), false);
+			if (response.getCode() < 200 || response.getCode() >= 300 || !(response.getContent() instanceof ContentPart)) {
+				throw new IOException("Could not prefetch the content of " + getUri() + ": " + response.getCode() + " - " + response.getMessage());
+			}
+			ListingCodec.Reader reader = openListing(response);
+			try {
+				Entry entry;
+				while ((entry = reader.next()) != null) {
+					RemoteItem item = entry.getPath() == null ? null : items.get(entry.getPath().replaceAll("^/+", ""));
+					if (item != null) {
+						item.prefetched(entry);
+					}
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+	
+	/**
+	 * Copies this subtree into the target, the archive is extracted as it comes in so nothing is kept in memory or on disk in between
+	 */
+	public void pull(ManageableContainer<?> target) throws IOException {
+		try {
+			HTTPResponse response = getClient().execute(new DefaultHTTPRequest("GET", getRoot() + "archive" + URIUtils.encodeURI(getPath()), new PlainMimeEmptyPart(null, 
+				new MimeHeader("Content-Length", "0"),
+				getHostHeader()
+			)), getPrincipal(), isSecure(), false);
+			if (response.getCode() < 200 || response.getCode() >= 300 || !(response.getContent() instanceof ContentPart)) {
+				throw new IOException("Could not download the archive of " + getUri() + ": " + response.getCode() + " - " + response.getMessage());
+			}
+			InputStream input = IOUtils.toInputStream(((ContentPart) response.getContent()).getReadable());
+			try {
+				ArchiveStream.extract(input, target, new HashMap<String, Resource>());
+			}
+			finally {
+				input.close();
+			}
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+	
+	/**
+	 * Copies the content of the source into this subtree, the archive is produced while it is being sent
+	 */
+	public void push(ResourceContainer<?> source) throws IOException {
+		try {
+			HTTPResponse response = getClient().execute(new DefaultHTTPRequest("POST", getRoot() + "archive" + URIUtils.encodeURI(getPath()), new PlainMimeContentPart(null, 
+				IOUtils.wrap(new ArchiveStream(source)),
+				new MimeHeader("Transfer-Encoding", "chunked"),
+				new MimeHeader("Content-Type", ArchiveStream.CONTENT_TYPE),
+				getHostHeader()
+			)), getPrincipal(), isSecure(), false);
+			if (response.getCode() < 200 || response.getCode() >= 300) {
+				throw new IOException("Could not upload the archive to " + getUri() + ": " + response.getCode() + " - " + response.getMessage());
+			}
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IOException(e);
+		}
+		finally {
+			// the subtree has changed in ways we can't reproduce locally
+			resetCache();
+		}
+	}
+	
+	void applyChanges(Changes changes) {
+		apply(changes.getEntries(), changes.getDeleted());
+		token = changes.getToken();
+		// the tree no longer corresponds with a listing version
+		version = null;
+		subtreeQuery = null;
+	}
+	
+	/**
+	 * Updates the loaded part of the tree with entries that were added or modified and paths that were deleted
+	 */
+	void apply(List<Entry> entries, List<String> deletes) {
+		if (deletes != null) {
+			for (String deleted : deletes) {
+				RemoteContainer parent = getLoadedParent(deleted);
+				Map<String, RemoteResource> siblings = parent == null ? null : parent.children;
+				if (siblings != null) {
+					siblings.remove(deleted.replaceAll("^.*/", ""));
+				}
+			}
+		}
+		if (entries != null) {
+			for (Entry entry : entries) {
+				RemoteContainer parent = getLoadedParent(entry.getPath());
+				Map<String, RemoteResource> siblings = parent == null ? null : parent.children;
+				if (siblings != null) {
+					RemoteResource existing = siblings.get(entry.getName());
+					// we keep existing folders, their content is updated by their own changes
+					if (!(existing instanceof RemoteContainer) || !Resource.CONTENT_TYPE_DIRECTORY.equals(entry.getContentType())) {
+						siblings.put(entry.getName(), parent.newResource(entry));
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Turns a path relative to this container into a server path
+	 */
+	String getServerPath(String path) {
+		String base = getPath() == null ? "" : getPath().replaceAll("/+$", "");
+		return base + "/" + path.replaceAll("^/+", "");
+	}
+	
+	/**
+	 * Adds a child that was created on the server, if the name is already taken (e.g. by a concurrent create) the existing child is returned
+	 * The put happens under the same lock as a reload so a listing that was requested before the creation can not swap it out afterwards
+	 */
+	RemoteResource adopt(String name, RemoteResource child) {
+		// make sure the listing is there, outside of the lock so we don't block concurrent readers that share the request
+		getChildren();
+		synchronized(this) {
+			// the listing is always a concurrent map so this is atomic
+			Map<String, RemoteResource> children = this.children;
+			// if the listing was dropped in the meantime, the next load happens after the creation and will contain it
+			if (children == null) {
+				return null;
+			}
+			RemoteResource existing = children.putIfAbsent(name, child);
+			return existing == null ? child : existing;
+		}
+	}
+
+	/**
+	 * Returns the resource at the given server path if that part of the tree is loaded, nothing is loaded to find it
+	 */
+	RemoteResource getLoaded(String path) {
+		RemoteContainer parent = getLoadedParent(path);
+		Map<String, RemoteResource> siblings = parent == null ? null : parent.children;
+		path = path.replaceAll("/+$", "");
+		return siblings == null ? null : siblings.get(path.substring(path.lastIndexOf('/') + 1));
+	}
+	
+	/**
+	 * Finds the parent container for a server path within the part of the tree that is already loaded
+	 */
+	private RemoteContainer getLoadedParent(String path) {
+		String base = getPath().replaceAll("^/+", "");
+		path = path.replaceAll("^/+", "");
+		if (!base.isEmpty()) {
+			if (!path.startsWith(base + "/")) {
+				return null;
+			}
+			path = path.substring(base.length() + 1);
+		}
+		String [] parts = path.split("/");
+		RemoteContainer current = this;
+		for (int i = 0; i < parts.length - 1; i++) {
+			Map<String, RemoteResource> children = current.children;
+			if (children == null) {
+				return null;
+			}
+			RemoteResource child = children.get(parts[i]);
+			if (!(child instanceof RemoteContainer)) {
+				return null;
+			}
+			current = (RemoteContainer) child;
+		}
+		return current.children == null ? null : current;
+	}
+	
 	@Override
 	public Iterator<RemoteResource> iterator() {
 		return getChildren().values().iterator();
@@ -131,10 +588,151 @@ public class RemoteContainer extends RemoteResource implements ResourceContainer
 	public void resetCache() throws IOException {
 		// only reset the children if we are not using the executor
 		if (getExecutor() == null) {
-			children = null;
+			Map<String, RemoteResource> children = this.children;
+			// if the server gave us a version or token, we keep the children around and check if they are still valid on next access
+			if (children != null && (version != null || (token != null && isIncremental()))) {
+				stale = true;
+				// the journal covers the whole subtree but a version only covers the levels that were listed
+				if (token == null || !isIncremental()) {
+					resetChildren(children);
+				}
+			}
+			else {
+				this.children = null;
+			}
+		}
+	}
+	
+	/**
+	 * Resets everything below us that our own revalidation does not cover: the content of items and the folders that were loaded separately
+	 */
+	private void resetChildren(Map<String, RemoteResource> children) throws IOException {
+		for (RemoteResource child : children.values()) {
+			if (child instanceof RemoteContainer) {
+				RemoteContainer container = (RemoteContainer) child;
+				Map<String, RemoteResource> grandchildren = container.children;
+				// it was listed along with us, so it is revalidated along with us
+				if (container.covered && grandchildren != null) {
+					container.resetChildren(grandchildren);
+				}
+				else {
+					container.resetCache();
+				}
+			}
+			else if (child instanceof CacheableResource) {
+				((CacheableResource) child).resetCache();
+			}
 		}
 	}
 
+	/**
+	 * Our listing revalidated, so the items it covers can keep the content they had before the reset
+	 */
+	private void restoreChildren(Map<String, RemoteResource> children) {
+		for (RemoteResource child : children.values()) {
+			if (child instanceof RemoteContainer) {
+				RemoteContainer container = (RemoteContainer) child;
+				Map<String, RemoteResource> grandchildren = container.children;
+				if (container.covered && grandchildren != null) {
+					container.restoreChildren(grandchildren);
+				}
+			}
+			else if (child instanceof RemoteItem) {
+				((RemoteItem) child).restore();
+			}
+		}
+	}
+
+	/**
+	 * Starts a background thread that long polls the server for changes and applies them to the tree
+	 */
+	public synchronized void startWatching() {
+		if (watcher == null) {
+			watcher = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					watch();
+				}
+			}, "remote-watch");
+			watcher.setDaemon(true);
+			watcher.start();
+		}
+	}
+	
+	public synchronized void stopWatching() {
+		if (watcher != null) {
+			watcher.interrupt();
+			watcher = null;
+		}
+	}
+	
+	public boolean isWatching() {
+		return watcher != null;
+	}
+	
+	private void watch() {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				// we need a token to start from
+				if (token == null) {
+					// drop the listing under the same lock as a reload so we don't undo one that is being applied
+					synchronized(this) {
+						children = null;
+					}
+					// but we must not hold the lock for the load itself, the shared request may be owned by a reader that is waiting for it in load()
+					getChildren();
+					if (token == null) {
+						logger.warn("The server does not support watching: " + getUri());
+						return;
+					}
+				}
+				HTTPResponse response = getClient().execute(new DefaultHTTPRequest("GET", getRoot() + "watch" + URIUtils.encodeURI(getPath()) + "?since=" + URIUtils.encodeURIComponent(token) + "&full=" + isFullList() + "&timeout=" + WATCH_TIMEOUT, new PlainMimeEmptyPart(null, 
+					new MimeHeader("Content-Length", "0"),
+					new MimeHeader("Accept-Encoding", "gzip"),
+					getHostHeader()
+				)), getPrincipal(), isSecure(), false);
+				if (response.getCode() < 200 || response.getCode() >= 300 || !(response.getContent() instanceof ContentPart)) {
+					throw new IOException("Invalid response code " + response.getCode() + ": " + response.getMessage());
+				}
+				byte [] content = IOUtils.toBytes(((ContentPart) response.getContent()).getReadable());
+				Changes changes = TypeUtils.getAsBean(getBinding(Changes.class).unmarshal(new ByteArrayInputStream(content), new Window[0]), Changes.class);
+				synchronized(this) {
+					if (changes == null || changes.isReset()) {
+						token = null;
+					}
+					else {
+						applyChanges(changes);
+					}
+				}
+				// the server is too busy to hold on to our request
+				if (changes != null && changes.getRetryAfter() != null) {
+					Thread.sleep(changes.getRetryAfter());
+				}
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+			catch (Exception e) {
+				if (Thread.currentThread().isInterrupted()) {
+					break;
+				}
+				logger.warn("Could not watch for changes on: " + getUri(), e);
+				try {
+					Thread.sleep(WATCH_RETRY_INTERVAL);
+				}
+				catch (InterruptedException e1) {
+					break;
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		stopWatching();
+		super.close();
+	}
+
 	@Override
 	public void setCaching(boolean cache) {
 		this.cache = cache;
@@ -146,15 +744,38 @@ public class RemoteContainer extends RemoteResource implements ResourceContainer
 	}
 
 	public boolean isRecursiveList() {
-		return recursiveList;
+		return recursiveList != null ? recursiveList : (getParent() instanceof RemoteContainer && ((RemoteContainer) getParent()).isRecursiveList());
 	}
 
 	public void setRecursiveList(boolean recursiveList) {
 		this.recursiveList = recursiveList;
 	}
 
+	/**
+	 * If set, listings include this many levels and deeper levels are fetched when they are first accessed, this takes precedence over the recursive list
+	 */
+	public Integer getListDepth() {
+		return listDepth != null ? listDepth : (getParent() instanceof RemoteContainer ? ((RemoteContainer) getParent()).getListDepth() : null);
+	}
+
+	public void setListDepth(Integer listDepth) {
+		this.listDepth = listDepth;
+	}
+
+	/**
+	 * If set, a reset is resolved by asking the server for the changes since our last listing instead of revalidating the listing
+	 * This is a lot cheaper for large trees but changes that are made directly on the backend of the server are not picked up
+	 */
+	public boolean isIncremental() {
+		return incremental != null ? incremental : (getParent() instanceof RemoteContainer && ((RemoteContainer) getParent()).isIncremental());
+	}
+
+	public void setIncremental(Boolean incremental) {
+		this.incremental = incremental;
+	}
+
 	public boolean isFullList() {
-		return fullList;
+		return fullList != null ? fullList : (getParent() instanceof RemoteContainer && ((RemoteContainer) getParent()).isFullList());
 	}
 
 	public void setFullList(boolean fullList) {
@@ -17,17 +17,15 @@
 
 package be.nabu.libs.resources.remote.client;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import be.nabu.libs.http.api.HTTPResponse;
 import be.nabu.libs.http.api.client.ConnectionHandler;
@@ -36,18 +34,27 @@ import be.nabu.libs.resources.URIUtils;
 import be.nabu.libs.resources.api.FiniteResource;
 import be.nabu.libs.resources.api.ReadableResource;
 import be.nabu.libs.resources.api.features.CacheableResource;
+import be.nabu.libs.resources.remote.server.Entry;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
 import be.nabu.utils.io.api.ReadableContainer;
 import be.nabu.utils.mime.api.ContentPart;
+import be.nabu.utils.mime.api.Header;
 import be.nabu.utils.mime.impl.MimeHeader;
+import be.nabu.utils.mime.impl.MimeUtils;
 import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
 
 public class RemoteItem extends RemoteResource implements ReadableResource, FiniteResource, CacheableResource {
 
 	protected Long size;
-	protected byte[] content;
+	protected volatile byte[] content;
 	protected String hash;
+	// the validator for the content, this allows us to revalidate the previous content after a reset
+	private String etag;
+	private volatile byte [] previous;
+	private SingleFlight<byte[]> downloads = new SingleFlight<byte[]>();
+	// the size of the ranges that streamed items are fetched in if no chunk size is configured
+	private static final long DEFAULT_CHUNK_SIZE = 1024l*1024*4;
 
 	public RemoteItem(ConnectionHandler connectionHandler, String host, Integer port, String root, Principal principal, String itemName, String contentType, Date lastModified, String path) {
 		super(connectionHandler, host, port, root, principal, itemName, contentType, lastModified, path);
@@ -56,8 +63,14 @@ public class RemoteItem extends RemoteResource implements ReadableResource, Fini
 	RemoteItem(RemoteContainer parent, String itemName, String contentType, Date lastModified, String path, Long size, byte [] content, String hash) {
 		super(parent, itemName, contentType, lastModified, path);
 		this.size = size;
-		this.content = content;
 		this.hash = hash;
+		if (content != null) {
+			setContent(content);
+			// inline content comes without a validator, without a hash the server uses this weak one so a later read can still be conditional
+			if (hash == null && lastModified != null && size != null) {
+				etag = "W/\"" + lastModified.getTime() + "-" + size + "\"";
+			}
+		}
 	}
 
 	@Override
@@ -67,78 +80,318 @@ public class RemoteItem extends RemoteResource implements ReadableResource, Fini
 
 	@Override
 	public ReadableContainer<ByteBuffer> getReadable() throws IOException {
+		// the content may be evicted at any time, so we work with a local copy
+		byte [] content = this.content;
+		if (content != null) {
+			ContentBudget.getInstance().touch(this);
+			return IOUtils.wrap(content, true);
+		}
+		// a write that has not reached the server yet is more recent than anything we can fetch
+		content = getPendingWrite();
+		if (content != null) {
+			return IOUtils.wrap(content, true);
+		}
+		// if we have a cache location and a hash, check if we cached it
+		// the cached file is mapped rather than loaded so it does not end up on the heap
+		File file = getCachedFile();
+		if (file != null) {
+			return new MappedReadable(file);
+		}
+		// large items are handed to each caller as they come in, we don't keep them in memory
+		// the http client may buffer a response as a whole, so we always fetch them in ranges which bounds the memory to parallelism * chunk size
+		if (isStreamed()) {
+			Long chunkSize = getChunkSize();
+			Integer parallelism = getParallelism();
+			setContent(null);
+			return cacheWhileReading(IOUtils.wrap(new ParallelDownload(this, size, chunkSize == null || chunkSize <= 0 ? DEFAULT_CHUNK_SIZE : chunkSize, parallelism == null ? 1 : Math.max(1, parallelism))));
+		}
+		// concurrent readers share a single download
+		content = downloads.execute(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return download();
+			}
+		});
+		return IOUtils.wrap(content, true);
+	}
+	
+	private byte [] download() throws IOException {
+		// it may have arrived while we were waiting for the previous download
+		byte [] content = this.content;
+		if (content != null) {
+			return content;
+		}
+		if (isParallel()) {
+			InputStream input = new ParallelDownload(this, size, getChunkSize(), getParallelism());
+			try {
+				content = IOUtils.toBytes(IOUtils.wrap(input));
+			}
+			finally {
+				input.close();
+			}
+			cache(content);
+		}
+		else {
+			// we still have the content from before the reset, check if it is still valid
+			byte [] previous = this.previous;
+			HTTPResponse response = request(previous);
+			if (response.getCode() == 304) {
+				content = previous;
+			}
+			else {
+				ReadableContainer<ByteBuffer> readable = ((ContentPart) response.getContent()).getReadable();
+				content = readable == null ? new byte[0] : IOUtils.toBytes(readable);
+				cache(content);
+			}
+		}
+		setContent(content);
+		return content;
+	}
+	
+	/**
+	 * Gets the content from the server, if we pass in the previous content it is revalidated and a 304 means it can be reused
+	 */
+	private HTTPResponse request(byte [] previous) throws IOException {
+		try {
+			List<Header> headers = new ArrayList<Header>();
+			headers.add(new MimeHeader("Content-Length", "0"));
+			headers.add(new MimeHeader("Accept-Encoding", "gzip"));
+			headers.add(getHostHeader());
+			if (previous != null && etag != null) {
+				headers.add(new MimeHeader("If-None-Match", etag));
+			}
+			HTTPResponse response = getClient().execute(new DefaultHTTPRequest("GET", getRoot() + "resource" + URIUtils.encodeURI(getPath()), new PlainMimeEmptyPart(null, 
+				headers.toArray(new Header[headers.size()])
+			)), getPrincipal(), isSecure(), false);
+			this.previous = null;
+			if (response.getCode() == 304 && previous != null) {
+				size = (long) previous.length;
+				return response;
+			}
+			else if (response.getCode() < 200 || response.getCode() >= 300 || !(response.getContent() instanceof ContentPart)) {
+				throw new IOException("Could not get content for file '" + getPath() + "': " + response.getCode() + " - " + response.getMessage());
+			}
+			Header etagHeader = MimeUtils.getHeader("ETag", response.getContent().getHeaders());
+			etag = etagHeader == null ? null : etagHeader.getValue();
+			updateSize(response);
+			return response;
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Whether it is worth fetching the content as part of a bulk request, that is when we can not read it locally and it is not streamed
+	 */
+	boolean isPrefetchable() {
+		return content == null && getPendingWrite() == null && !isStreamed() && getCachedFile() == null;
+	}
+
+	/**
+	 * Takes over the result of a bulk request, content that was too big to send along only comes with a hash
+	 */
+	void prefetched(Entry entry) {
+		if (entry.getHash() != null) {
+			hash = entry.getHash();
+		}
+		if (entry.getContent() != null && content == null) {
+			size = (long) entry.getContent().length;
+			setContent(entry.getContent());
+			if (entry.getHash() == null && entry.getLastModified() != null) {
+				etag = "W/\"" + entry.getLastModified().getTime() + "-" + size + "\"";
+			}
+		}
+	}
+
+	/**
+	 * The content of a write that is still on its way to the server, if any
+	 */
+	byte [] getPendingWrite() {
+		return null;
+	}
+
+	/**
+	 * Sets the content we keep in memory, it counts towards the global memory budget for remote content
+	 */
+	protected void setContent(byte [] content) {
+		this.content = content;
 		if (content == null) {
-			// if we have a cache location and a hash, check if we cached it
-			if (cacheLocation != null && hash != null) {
-				File file = new File(cacheLocation, hash);
-				if (file.exists() && file.isFile()) {
-					InputStream input = new BufferedInputStream(new FileInputStream(file));
-					try {
-						content = IOUtils.toBytes(IOUtils.wrap(input));
-					}
-					finally {
-						input.close();
-					}
-				}
+			ContentBudget.getInstance().release(this);
+		}
+		else {
+			ContentBudget.getInstance().register(this, content.length);
+		}
+	}
+	
+	/**
+	 * Called when the memory budget is exceeded, the content will be fetched again from the disk cache or the server when needed
+	 */
+	void evict() {
+		content = null;
+		previous = null;
+	}
+
+	/**
+	 * Reads part of the item, only the requested range is fetched from the server
+	 */
+	public ReadableContainer<ByteBuffer> getReadable(long offset, long length) throws IOException {
+		if (offset < 0 || length < 0) {
+			throw new IllegalArgumentException("Invalid range: " + offset + " + " + length);
+		}
+		byte [] content = this.content;
+		if (content == null) {
+			content = getPendingWrite();
+		}
+		if (content != null) {
+			int from = (int) Math.min(offset, content.length);
+			return IOUtils.wrap(new ByteArrayInputStream(content, from, (int) Math.min(length, content.length - from)));
+		}
+		File file = getCachedFile();
+		if (file != null) {
+			return new MappedReadable(file, offset, length);
+		}
+		if (length == 0) {
+			return IOUtils.wrap(new byte[0], true);
+		}
+		try {
+			HTTPResponse response = getClient().execute(new DefaultHTTPRequest("GET", getRoot() + "resource" + URIUtils.encodeURI(getPath()), new PlainMimeEmptyPart(null, 
+				new MimeHeader("Content-Length", "0"),
+				new MimeHeader("Range", "bytes=" + offset + "-" + (offset + length - 1)),
+				getHostHeader()
+			)), getPrincipal(), isSecure(), false);
+			// the offset lies beyond the end of the file
+			if (response.getCode() == 416) {
+				return IOUtils.wrap(new byte[0], true);
 			}
-			if (content == null) {
-				try {
-					HTTPResponse response = getClient().execute(new DefaultHTTPRequest("GET", getRoot() + "resource" + URIUtils.encodeURI(getPath()), new PlainMimeEmptyPart(null, 
-						new MimeHeader("Content-Length", "0"),
-						new MimeHeader("Accept-Encoding", "gzip"),
-						getHostHeader()
-					)), getPrincipal(), isSecure(), false);
-					if (response.getCode() < 200 || response.getCode() >= 300 || !(response.getContent() instanceof ContentPart)) {
-						throw new IOException("Could not get content for file '" + getPath() + "': " + response.getCode() + " - " + response.getMessage());
-					}
-					ReadableContainer<ByteBuffer> readable = response == null || response.getContent() == null ? null : ((ContentPart) response.getContent()).getReadable();
-					if (readable == null) {
-						content = new byte[0];
-						cache(content);
-					}
-					else {
-						content = IOUtils.toBytes(readable);
-						cache(content);
-					}
-				}
-				catch (IOException e) {
-					throw e;
-				}
-				catch (Exception e) {
-					throw new RuntimeException(e);
+			else if (response.getCode() < 200 || response.getCode() >= 300 || !(response.getContent() instanceof ContentPart)) {
+				throw new IOException("Could not get content for file '" + getPath() + "': " + response.getCode() + " - " + response.getMessage());
+			}
+			updateSize(response);
+			ReadableContainer<ByteBuffer> readable = ((ContentPart) response.getContent()).getReadable();
+			if (readable == null) {
+				return IOUtils.wrap(new byte[0], true);
+			}
+			// the server did not honor the range, skip to the correct position ourselves
+			else if (response.getCode() != 206) {
+				InputStream input = IOUtils.toInputStream(readable);
+				skip(input, offset);
+				return IOUtils.limitReadable(IOUtils.wrap(input), length);
+			}
+			return readable;
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	static void skip(InputStream input, long amount) throws IOException {
+		long skipped = 0;
+		while (skipped < amount) {
+			long skip = input.skip(amount - skipped);
+			if (skip <= 0) {
+				if (input.read() < 0) {
+					break;
 				}
+				skip = 1;
 			}
+			skipped += skip;
 		}
-		return IOUtils.wrap(content, true);
+	}
+	
+	private boolean isParallel() {
+		Long chunkSize = getChunkSize();
+		Integer parallelism = getParallelism();
+		return chunkSize != null && chunkSize > 0 && parallelism != null && parallelism > 1 && size != null && size > chunkSize;
+	}
+	
+	private boolean isStreamed() {
+		Long streamThreshold = getStreamThreshold();
+		return streamThreshold != null && size != null && size >= streamThreshold;
+	}
+	
+	protected DiskCache getDiskCache() {
+		return cacheLocation == null ? null : DiskCache.getInstance(cacheLocation);
+	}
+	
+	private File getCachedFile() {
+		DiskCache cache = hash == null ? null : getDiskCache();
+		return cache == null ? null : cache.get(hash);
+	}
+	
+	/**
+	 * Wraps the readable so the content is written to the disk cache as it is consumed
+	 */
+	protected ReadableContainer<ByteBuffer> cacheWhileReading(ReadableContainer<ByteBuffer> readable) throws IOException {
+		DiskCache cache = getDiskCache();
+		if (cache == null || hash == null) {
+			return readable;
+		}
+		return IOUtils.wrap(new CachingInputStream(IOUtils.toInputStream(readable), cache, hash));
 	}
 
-	protected void cache(byte [] content) throws FileNotFoundException, IOException {
+	protected void cache(byte [] content) throws IOException {
 		// store it for later reuse
-		if (cacheLocation != null && hash != null) {
-			File cache = new File(cacheLocation);
-			if (!cache.exists()) {
-				cache.mkdirs();
-			}
-			File file = new File(cache, hash);
+		DiskCache cache = getDiskCache();
+		if (cache != null && hash != null) {
 			if (content == null || content.length == 0) {
-				file.delete();
+				cache.remove(hash);
 			}
 			else {
-				OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
-				try {
-					output.write(content);
+				cache.put(hash, content);
+			}
+		}
+	}
+
+	/**
+	 * Keeps the size up to date with what the server sends us, a compressed response only tells us the compressed size
+	 */
+	private void updateSize(HTTPResponse response) {
+		Header [] headers = response.getContent().getHeaders();
+		try {
+			Header range = MimeUtils.getHeader("Content-Range", headers);
+			if (response.getCode() == 206 && range != null) {
+				String total = range.getValue().substring(range.getValue().lastIndexOf('/') + 1).trim();
+				if (!total.equals("*")) {
+					size = Long.parseLong(total);
 				}
-				finally {
-					output.close();
+			}
+			else if (response.getCode() == 200 && MimeUtils.getHeader("Content-Encoding", headers) == null) {
+				Header length = MimeUtils.getHeader("Content-Length", headers);
+				if (length != null) {
+					size = Long.parseLong(length.getValue().trim());
 				}
 			}
 		}
+		catch (NumberFormatException e) {
+			// keep what we have
+		}
+	}
+
+	/**
+	 * The listing we are part of was revalidated, so the content we had before the reset is still good
+	 */
+	void restore() {
+		byte [] previous = this.previous;
+		if (content == null && previous != null) {
+			setContent(previous);
+		}
+		this.previous = null;
 	}
 
 	@Override
 	public void resetCache() throws IOException {
+		if (content != null) {
+			previous = content;
+		}
 		content = null;
-		size = 0l;
+		// we keep the size, it decides how the content is fetched and is updated by the next response
 	}
 
 	@Override
@@ -17,10 +17,14 @@
 
 package be.nabu.libs.resources.remote.client;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.security.Principal;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import be.nabu.libs.http.api.HTTPResponse;
 import be.nabu.libs.http.api.client.ConnectionHandler;
@@ -30,6 +34,11 @@ import be.nabu.libs.resources.URIUtils;
 import be.nabu.libs.resources.api.ManageableContainer;
 import be.nabu.libs.resources.api.Resource;
 import be.nabu.libs.resources.api.features.CacheableResource;
+import be.nabu.libs.resources.remote.server.Entry;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.binding.api.Window;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.mime.api.ContentPart;
 import be.nabu.utils.mime.impl.FormatException;
 import be.nabu.utils.mime.impl.MimeHeader;
 import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
@@ -67,13 +76,11 @@ public class RemoteManageableContainer extends RemoteContainer implements Manage
 				throw new RuntimeException("Invalid response code " + response.getCode() + ": " + response.getMessage());
 			}
 			// the actual backend resource will be created upon use, so just send back a resource instance
-			if (Resource.CONTENT_TYPE_DIRECTORY.equals(contentType)) {
-				getChildren().put(name, new RemoteManageableContainer(this, name, contentType, new Date(), childPath, recursiveList));
-			}
-			else {
-				getChildren().put(name, new RemoteWritableItem(this, name, contentType, new Date(), childPath, 0l, new byte[0], null));
-			}
-			return getChildren().get(name);
+			RemoteResource child = Resource.CONTENT_TYPE_DIRECTORY.equals(contentType)
+				? new RemoteManageableContainer(this, name, contentType, new Date(), childPath, isRecursiveList())
+				: new RemoteWritableItem(this, name, contentType, new Date(), childPath, 0l, new byte[0], null);
+			RemoteResource adopted = adopt(name, child);
+			return adopted == null ? getChildren().get(name) : adopted;
 		}
 		catch (Exception e) {
 			throw new RuntimeException(e);
@@ -102,5 +109,79 @@ public class RemoteManageableContainer extends RemoteContainer implements Manage
 		}
 	}
 
+	/**
+	 * Copies a resource to another path on the server, both paths are relative to this container
+	 */
+	public void copy(String from, String to) throws IOException {
+		transfer("copy", from, to);
+	}
+
+	/**
+	 * Moves a resource to another path on the server, both paths are relative to this container
+	 */
+	public void move(String from, String to) throws IOException {
+		transfer("move", from, to);
+	}
+
+	/**
+	 * Runs the copy or move on the server and applies the result to the loaded part of the tree
+	 * Content we already have for an item is carried over so it does not have to be fetched again
+	 */
+	private void transfer(String action, String from, String to) throws IOException {
+		String source = getServerPath(from);
+		String target = getServerPath(to);
+		Entry entry;
+		try {
+			HTTPResponse response = getClient().execute(new DefaultHTTPRequest("POST", getRoot() + action + URIUtils.encodeURI(source) + "?to=" + URIUtils.encodeURIComponent(target), new PlainMimeEmptyPart(null, 
+				new MimeHeader("Content-Length", "0"),
+				getHostHeader()
+			)), getPrincipal(), isSecure(), false);
+			if (response.getCode() < 200 || response.getCode() >= 300 || !(response.getContent() instanceof ContentPart)) {
+				throw new IOException("Could not " + action + " '" + from + "' to '" + to + "': " + response.getCode() + " - " + response.getMessage());
+			}
+			byte [] content = IOUtils.toBytes(((ContentPart) response.getContent()).getReadable());
+			entry = TypeUtils.getAsBean(getBinding(Entry.class).unmarshal(new ByteArrayInputStream(content), new Window[0]), Entry.class);
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IOException(e);
+		}
+		List<Entry> entries = new ArrayList<Entry>();
+		// the server creates missing parents of the target, existing folders are left alone when applied
+		String [] parts = to.replaceAll("^/+", "").replaceAll("/+$", "").split("/");
+		String current = null;
+		for (int i = 0; i < parts.length - 1; i++) {
+			current = current == null ? parts[i] : current + "/" + parts[i];
+			Entry folder = new Entry();
+			folder.setName(parts[i]);
+			folder.setPath(getServerPath(current));
+			folder.setContentType(Resource.CONTENT_TYPE_DIRECTORY);
+			folder.setLastModified(new Date());
+			entries.add(folder);
+		}
+		RemoteResource original = getLoaded(source);
+		if (original instanceof RemoteItem && entry.getContent() == null) {
+			RemoteItem item = (RemoteItem) original;
+			byte [] content = item.content;
+			if (content != null && entry.getSize() != null && entry.getSize() == content.length) {
+				entry.setContent(content);
+			}
+			if (entry.getHash() == null) {
+				entry.setHash(item.hash);
+			}
+		}
+		entry.setPath(target);
+		entries.add(entry);
+		apply(entries, "move".equals(action) ? Arrays.asList(source) : null);
+	}
+
+	/**
+	 * Starts a batch of operations relative to this container that are sent to the server in a single request
+	 */
+	public RemoteBatch batch() {
+		return new RemoteBatch(this);
+	}
 
 }
@@ -18,6 +18,7 @@
 package be.nabu.libs.resources.remote.client;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
@@ -27,6 +28,9 @@ import java.nio.charset.Charset;
 import java.security.Principal;
 import java.util.Date;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,6 +59,16 @@ import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
 
 public class RemoteResource implements TimestampedResource, Closeable, LocatableResource {
 	
+	// shared by all remote resources to run chunked downloads and uploads
+	private static ExecutorService transfers = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "remote-transfer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
 	private String itemName;
 	private String contentType;
 	private Date lastModified;
@@ -70,6 +84,12 @@ public class RemoteResource implements TimestampedResource, Closeable, Locatable
 	private Executor executor;
 	Logger logger = LoggerFactory.getLogger(getClass());
 	private Principal principal;
+	private Long streamThreshold, chunkSize, partSize;
+	private Integer parallelism;
+	private Boolean streamWrites;
+	private String journal;
+	private Long maxPendingWrites;
+	private WriteBehind writeBehind;
 	protected String cacheLocation = System.getProperty("resource.rest.cache");
 
 	RemoteResource(RemoteContainer parent, String itemName, String contentType, Date lastModified, String path) {
@@ -199,6 +219,10 @@ public class RemoteResource implements TimestampedResource, Closeable, Locatable
 		return binding;
 	}
 
+	protected UnmarshallableBinding getBinding(Class<?> type) {
+		return new XMLBinding((ComplexType) BeanResolver.getInstance().resolve(type), Charset.forName("UTF-8"));
+	}
+
 	@Override
 	public void close() throws IOException {
 		if (parent == null) {
@@ -249,6 +273,10 @@ public class RemoteResource implements TimestampedResource, Closeable, Locatable
 		return false;
 	}
 
+	static ExecutorService getTransfers() {
+		return transfers;
+	}
+
 	public Executor getExecutor() {
 		return executor != null ? executor : (parent == null ? null : parent.getExecutor());
 	}
@@ -257,4 +285,106 @@ public class RemoteResource implements TimestampedResource, Closeable, Locatable
 		this.executor = executor;
 	}
 	
+	/**
+	 * Items that are at least this big are streamed to the caller instead of being buffered in memory
+	 */
+	public Long getStreamThreshold() {
+		return streamThreshold != null ? streamThreshold : (parent == null ? null : parent.getStreamThreshold());
+	}
+
+	public void setStreamThreshold(Long streamThreshold) {
+		this.streamThreshold = streamThreshold;
+	}
+	
+	/**
+	 * Items larger than the chunk size are downloaded as multiple ranges at once
+	 */
+	public Long getChunkSize() {
+		return chunkSize != null ? chunkSize : (parent == null ? null : parent.getChunkSize());
+	}
+
+	public void setChunkSize(Long chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * The maximum amount of concurrent requests used for a single item
+	 */
+	public Integer getParallelism() {
+		return parallelism != null ? parallelism : (parent == null ? null : parent.getParallelism());
+	}
+
+	public void setParallelism(Integer parallelism) {
+		this.parallelism = parallelism;
+	}
+	
+	/**
+	 * Whether writes are sent to the server as they happen instead of being buffered until the writable is closed
+	 */
+	public boolean isStreamWrites() {
+		return streamWrites != null ? streamWrites : (parent != null && parent.isStreamWrites());
+	}
+
+	public void setStreamWrites(Boolean streamWrites) {
+		this.streamWrites = streamWrites;
+	}
+	
+	/**
+	 * Writes that exceed the part size are uploaded as multiple parts which are assembled on the server
+	 */
+	public Long getPartSize() {
+		return partSize != null ? partSize : (parent == null ? null : parent.getPartSize());
+	}
+
+	public void setPartSize(Long partSize) {
+		this.partSize = partSize;
+	}
+
+	/**
+	 * The folder where writes that are handed to the executor are kept until they reach the server
+	 */
+	public String getJournal() {
+		return journal != null ? journal : (parent == null ? null : parent.getJournal());
+	}
+
+	public void setJournal(String journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * The maximum amount of bytes that can be waiting to be written by the executor before new writes block
+	 */
+	public Long getMaxPendingWrites() {
+		return maxPendingWrites != null ? maxPendingWrites : (parent == null ? null : parent.getMaxPendingWrites());
+	}
+
+	public void setMaxPendingWrites(Long maxPendingWrites) {
+		this.maxPendingWrites = maxPendingWrites;
+	}
+
+	/**
+	 * The writes that are handed to the executor are managed by the root
+	 */
+	WriteBehind getWriteBehind() {
+		if (parent != null) {
+			return parent.getWriteBehind();
+		}
+		synchronized(this) {
+			if (writeBehind == null) {
+				Long maxPendingWrites = getMaxPendingWrites();
+				String journal = getJournal();
+				writeBehind = new WriteBehind(this, maxPendingWrites == null ? 1024l*1024*64 : maxPendingWrites, journal == null ? null : new File(journal));
+			}
+			return writeBehind;
+		}
+	}
+
+	/**
+	 * Blocks until all the writes that were handed to the executor before this call have reached the server
+	 * If any of them failed since the last flush, an exception is thrown
+	 */
+	public void flushWrites() throws IOException {
+		getWriteBehind().flush();
+	}
+	
 }
@@ -25,6 +25,8 @@ import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
@@ -43,6 +45,28 @@ import be.nabu.libs.resources.api.ResourceResolver;
 
 public class RemoteResourceResolver implements ResourceResolver {
 
+	// containers that are being watched, a watcher is a thread and a pending request so we share them instead of starting one per resolve
+	private static Map<String, RemoteManageableContainer> watched = new HashMap<String, RemoteManageableContainer>();
+	
+	/**
+	 * Stops the watcher that was started when resolving the given uri (with any principal), returns false if there was none
+	 */
+	public static boolean stopWatching(URI uri) {
+		boolean stopped = false;
+		synchronized(watched) {
+			Iterator<Map.Entry<String, RemoteManageableContainer>> iterator = watched.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, RemoteManageableContainer> entry = iterator.next();
+				if (entry.getKey().startsWith(uri.toString() + "#")) {
+					entry.getValue().stopWatching();
+					iterator.remove();
+					stopped = true;
+				}
+			}
+		}
+		return stopped;
+	}
+	
 	@Override
 	public Resource getResource(URI uri, Principal principal) throws IOException {
 		if (principal == null) {
@@ -63,6 +87,17 @@ public class RemoteResourceResolver implements ResourceResolver {
 		boolean recursive = queryProperties.containsKey("recursive") ? Boolean.parseBoolean(queryProperties.get("recursive").get(0)) : Boolean.parseBoolean(System.getProperty("resources.remote.recursive", "true"));
 		boolean full = queryProperties.containsKey("full") ? Boolean.parseBoolean(queryProperties.get("full").get(0)) : Boolean.parseBoolean(System.getProperty("resources.remote.full", "false"));
 		List<String> timeout = queryProperties.get("timeout");
+		Boolean watch = getBoolean(queryProperties, "watch");
+		String key = uri.toString() + "#" + (principal == null ? "" : principal.getName());
+		if (watch != null && watch) {
+			synchronized(watched) {
+				RemoteManageableContainer existing = watched.get(key);
+				// it may have been closed in the meantime
+				if (existing != null && existing.isWatching()) {
+					return existing;
+				}
+			}
+		}
 		try {
 			RemoteManageableContainer remoteContainer;
 			if (Boolean.parseBoolean(System.getProperty("http.experimental.client", "true"))) {
@@ -78,13 +113,57 @@ public class RemoteResourceResolver implements ResourceResolver {
 			else {
 				remoteContainer = new RemoteManageableContainer(new PlainConnectionHandler((uri.getScheme().equals("https") || uri.getScheme().equals("remotes")) ? SSLContext.getDefault() : null, 10*1000*60, 10*1000*60), uri.getHost(), uri.getPort(), uri.getPath(), principal, null, Resource.CONTENT_TYPE_DIRECTORY, new Date(), "/", recursive, full);
 			}
-			return remoteContainer.exists() ? remoteContainer : null;
+			remoteContainer.setStreamThreshold(getLong(queryProperties, "streamThreshold"));
+			remoteContainer.setChunkSize(getLong(queryProperties, "chunkSize"));
+			Long parallelism = getLong(queryProperties, "parallelism");
+			remoteContainer.setParallelism(parallelism == null ? null : parallelism.intValue());
+			remoteContainer.setStreamWrites(getBoolean(queryProperties, "streamWrites"));
+			remoteContainer.setPartSize(getLong(queryProperties, "partSize"));
+			Long depth = getLong(queryProperties, "depth");
+			remoteContainer.setListDepth(depth == null ? null : depth.intValue());
+			remoteContainer.setIncremental(getBoolean(queryProperties, "incremental"));
+			remoteContainer.setMaxPendingWrites(getLong(queryProperties, "maxPendingWrites"));
+			remoteContainer.setJournal(getString(queryProperties, "journal"));
+			if (!remoteContainer.exists()) {
+				return null;
+			}
+			// writes that did not reach the server before a restart
+			if (remoteContainer.getJournal() != null) {
+				remoteContainer.getWriteBehind().replay();
+			}
+			if (watch != null && watch) {
+				synchronized(watched) {
+					RemoteManageableContainer existing = watched.get(key);
+					// another resolve beat us to it
+					if (existing != null && existing.isWatching()) {
+						return existing;
+					}
+					remoteContainer.startWatching();
+					watched.put(key, remoteContainer);
+				}
+			}
+			return remoteContainer;
 		}
 		catch (NoSuchAlgorithmException e) {
 			throw new IOException(e);
 		}
 	}
 
+	private static String getString(Map<String, List<String>> queryProperties, String name) {
+		String value = queryProperties.containsKey(name) ? queryProperties.get(name).get(0) : System.getProperty("resources.remote." + name);
+		return value == null || value.trim().isEmpty() ? null : value.trim();
+	}
+
+	private static Long getLong(Map<String, List<String>> queryProperties, String name) {
+		String value = queryProperties.containsKey(name) ? queryProperties.get(name).get(0) : System.getProperty("resources.remote." + name);
+		return value == null || value.trim().isEmpty() ? null : Long.parseLong(value.trim());
+	}
+
+	private static Boolean getBoolean(Map<String, List<String>> queryProperties, String name) {
+		String value = queryProperties.containsKey(name) ? queryProperties.get(name).get(0) : System.getProperty("resources.remote." + name);
+		return value == null || value.trim().isEmpty() ? null : Boolean.parseBoolean(value.trim());
+	}
+
 	@Override
 	public List<String> getDefaultSchemes() {
 		return Arrays.asList(new String [] { "remote", "remotes" });
@@ -18,8 +18,13 @@
 package be.nabu.libs.resources.remote.client;
 
 import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.security.Principal;
 import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import be.nabu.libs.http.api.HTTPResponse;
 import be.nabu.libs.http.api.client.ConnectionHandler;
@@ -35,6 +40,8 @@ import be.nabu.utils.mime.impl.PlainMimeContentPart;
 
 public class RemoteWritableItem extends RemoteItem implements WritableResource {
 
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
 	public RemoteWritableItem(ConnectionHandler connectionHandler, String host, Integer port, String root, Principal principal, String itemName, String contentType, Date lastModified, String path) {
 		super(connectionHandler, host, port, root, principal, itemName, contentType, lastModified, path);
 	}
@@ -45,6 +52,19 @@ public class RemoteWritableItem extends RemoteItem implements WritableResource {
 
 	@Override
 	public WritableContainer<ByteBuffer> getWritable() throws IOException {
+		Long partSize = getPartSize();
+		boolean direct = (partSize != null && partSize > 0) || isStreamWrites();
+		// a direct upload bypasses the write behind, so an earlier write to the same path must not arrive after it
+		if (direct) {
+			getWriteBehind().flush(getPath());
+		}
+		if (partSize != null && partSize > 0) {
+			Integer parallelism = getParallelism();
+			return new MultipartUpload(this, (int) Math.min(partSize, Integer.MAX_VALUE), parallelism == null ? 1 : parallelism);
+		}
+		else if (isStreamWrites()) {
+			return getStreamingWritable();
+		}
 		return new WritableContainer<ByteBuffer>() {
 			private boolean closed;
 			private ByteBuffer buffer = ByteBufferFactory.getInstance().newInstance();
@@ -55,49 +75,7 @@ public class RemoteWritableItem extends RemoteItem implements WritableResource {
 				if (!closed) {
 					closed = true;
 					buffer.close();
-					try {
-						final byte [] content = IOUtils.toBytes(buffer);
-						Runnable action = new Runnable() {
-							public void run() {
-								try {
-									HTTPResponse response = getClient().execute(new DefaultHTTPRequest("PUT", getRoot() + "resource" + URIUtils.encodeURI(getPath()), new PlainMimeContentPart(null, 
-										IOUtils.wrap(content, true),
-										new MimeHeader("Content-Type", getContentType()),
-										new MimeHeader("Content-Length", Long.toString(content.length)),
-										getHostHeader()
-									)), getPrincipal(), isSecure(), false);
-									if (response.getCode() < 200 || response.getCode() >= 300) {
-										throw new IOException("Could not persist data: " + response.getCode() + " - " + response.getMessage());
-									}
-									else {
-										RemoteWritableItem.this.size = (long) content.length;
-										RemoteWritableItem.this.content = content;
-										cache(content);
-									}
-								}
-								catch (Exception e) {
-									logger.error("Could not persist data for: " + getUri(), e);
-									throw new RuntimeException(e);
-								}
-							}
-						};
-						if (getExecutor() == null) {
-							action.run();
-						}
-						else {
-							// already update locally, assuming everything will (eventually) be persisted
-							RemoteWritableItem.this.size = (long) content.length;
-							RemoteWritableItem.this.content = content;
-							getExecutor().execute(action);
-							cache(content);
-						}
-					}
-					catch (IOException e) {
-						throw e;
-					}
-					catch (Exception e) {
-						throw new RuntimeException(e);
-					}
+					persist(IOUtils.toBytes(buffer));
 				}
 			}
 			@Override
@@ -110,5 +88,118 @@ public class RemoteWritableItem extends RemoteItem implements WritableResource {
 			}
 		};
 	}
-
+	
+	void persist(byte [] content) throws IOException {
+		if (getExecutor() == null) {
+			put(content);
+			this.size = (long) content.length;
+			setContent(content);
+			cache(content);
+		}
+		else {
+			// already update locally, assuming everything will (eventually) be persisted
+			this.size = (long) content.length;
+			setContent(content);
+			cache(content);
+			getWriteBehind().submit(this, content, getExecutor());
+		}
+	}
+	
+	/**
+	 * Sends the content to the server without touching the local state
+	 */
+	void put(byte [] content) throws IOException {
+		try {
+			HTTPResponse response = getClient().execute(new DefaultHTTPRequest("PUT", getRoot() + "resource" + URIUtils.encodeURI(getPath()), new PlainMimeContentPart(null, 
+				IOUtils.wrap(content, true),
+				new MimeHeader("Content-Type", getContentType()),
+				new MimeHeader("Content-Length", Long.toString(content.length)),
+				getHostHeader()
+			)), getPrincipal(), isSecure(), false);
+			if (response.getCode() < 200 || response.getCode() >= 300) {
+				throw new IOException("Could not persist data: " + response.getCode() + " - " + response.getMessage());
+			}
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	@Override
+	byte [] getPendingWrite() {
+		return getWriteBehind().get(getPath());
+	}
+	
+	/**
+	 * Starts the PUT immediately and pipes everything that is written into the chunked request body
+	 * Only the pipe buffer is kept in memory, the written content is not retained locally
+	 */
+	private WritableContainer<ByteBuffer> getStreamingWritable() throws IOException {
+		final PipedInputStream input = new PipedInputStream(STREAM_BUFFER_SIZE);
+		final PipedOutputStream output = new PipedOutputStream(input);
+		final FutureTask<HTTPResponse> upload = new FutureTask<HTTPResponse>(new Callable<HTTPResponse>() {
+			@Override
+			public HTTPResponse call() throws Exception {
+				try {
+					return getClient().execute(new DefaultHTTPRequest("PUT", getRoot() + "resource" + URIUtils.encodeURI(getPath()), new PlainMimeContentPart(null, 
+						IOUtils.wrap(input),
+						new MimeHeader("Content-Type", getContentType()),
+						new MimeHeader("Transfer-Encoding", "chunked"),
+						getHostHeader()
+					)), getPrincipal(), isSecure(), false);
+				}
+				finally {
+					input.close();
+				}
+			}
+		});
+		RemoteResource.getTransfers().execute(upload);
+		final WritableContainer<ByteBuffer> writable = IOUtils.wrap(output);
+		return new WritableContainer<ByteBuffer>() {
+			private boolean closed;
+			private long written;
+			@Override
+			public long write(ByteBuffer buffer) throws IOException {
+				// if the upload stopped, there is no point in accepting more data
+				if (upload.isDone()) {
+					close();
+					throw new IOException("The upload for " + getUri() + " has already ended");
+				}
+				long amount = writable.write(buffer);
+				written += amount;
+				return amount;
+			}
+			@Override
+			public void flush() throws IOException {
+				writable.flush();
+			}
+			@Override
+			public void close() throws IOException {
+				if (!closed) {
+					closed = true;
+					writable.close();
+					try {
+						HTTPResponse response = upload.get();
+						if (response.getCode() < 200 || response.getCode() >= 300) {
+							throw new IOException("Could not persist data: " + response.getCode() + " - " + response.getMessage());
+						}
+						RemoteWritableItem.this.size = written;
+						// we did not keep the content and we don't know the new hash
+						setContent(null);
+						RemoteWritableItem.this.hash = null;
+					}
+					catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+					catch (ExecutionException e) {
+						logger.error("Could not persist data for: " + getUri(), e.getCause());
+						throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+					}
+				}
+			}
+		};
+	}
 }
@@ -0,0 +1,83 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.client;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Makes concurrent callers share a single execution of an expensive action like a download or a listing
+ * The first caller runs the action, the others wait for its result without holding any locks
+ */
+class SingleFlight<T> {
+
+	private CompletableFuture<T> current;
+
+	T execute(Callable<T> action) throws IOException {
+		CompletableFuture<T> future;
+		boolean owner = false;
+		synchronized(this) {
+			if (current == null) {
+				current = new CompletableFuture<T>();
+				owner = true;
+			}
+			future = current;
+		}
+		if (owner) {
+			try {
+				T result = action.call();
+				future.complete(result);
+				return result;
+			}
+			// errors too, otherwise the callers that are waiting for the result would never wake up
+			catch (Throwable e) {
+				future.completeExceptionally(e);
+				throw rethrow(e);
+			}
+			finally {
+				synchronized(this) {
+					current = null;
+				}
+			}
+		}
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		catch (ExecutionException e) {
+			throw rethrow(e.getCause());
+		}
+	}
+
+	private static IOException rethrow(Throwable e) {
+		if (e instanceof IOException) {
+			return (IOException) e;
+		}
+		else if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		}
+		else if (e instanceof Error) {
+			throw (Error) e;
+		}
+		return new IOException(e);
+	}
+}
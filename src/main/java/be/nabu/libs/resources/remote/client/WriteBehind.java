@@ -0,0 +1,371 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the writes that are handed to an executor to the server in the background
+ * There is at most one queued write per path and a newer write replaces it (last write wins), writes to the same path are never in flight at the same time so they arrive in order
+ * When the queued content exceeds the configured amount of bytes, new writes block until there is room again
+ * If a journal folder is configured, queued writes are stored there until they reach the server so they can be replayed after a restart
+ */
+class WriteBehind {
+
+	private static final int RETRIES = 3;
+	private static final long RETRY_INTERVAL = 1000;
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private RemoteResource root;
+	private long maxBytes, pendingBytes, sequence;
+	private File journal;
+	// the writes that are waiting, at most one per path
+	private Map<String, Write> queued = new HashMap<String, Write>();
+	// the writes that are being sent
+	private Map<String, Write> running = new HashMap<String, Write>();
+	private List<IOException> failures = new ArrayList<IOException>();
+
+	WriteBehind(RemoteResource root, long maxBytes, File journal) {
+		this.root = root;
+		this.maxBytes = maxBytes;
+		this.journal = journal;
+	}
+
+	void submit(RemoteWritableItem item, byte [] content, Executor executor) throws IOException {
+		String path = item.getPath();
+		// the content is written to the journal outside of the lock, only moving it in place happens inside so the journal follows the order of the writes
+		File temporary = prepare(item, content);
+		try {
+			synchronized(this) {
+				// wait until there is room, content that we replace does not count
+				while (pendingBytes > 0 && pendingBytes - getQueuedSize(path) + content.length > maxBytes) {
+					try {
+						wait();
+					}
+					catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+				}
+				// if this fails, the write that is queued is left untouched
+				journal(temporary, path);
+				Write existing = queued.remove(path);
+				Write write = new Write(++sequence, item, content, executor);
+				if (existing != null) {
+					pendingBytes -= existing.content.length;
+					// a barrier that was waiting for the replaced write now waits for this one
+					write.since = existing.since;
+				}
+				pendingBytes += content.length;
+				queued.put(path, write);
+				if (!running.containsKey(path)) {
+					schedule(path);
+				}
+			}
+		}
+		finally {
+			if (temporary != null) {
+				temporary.delete();
+			}
+		}
+	}
+
+	private long getQueuedSize(String path) {
+		Write write = queued.get(path);
+		return write == null ? 0 : write.content.length;
+	}
+
+	/**
+	 * Returns the content that is still on its way to the server, so readers see their own writes
+	 */
+	synchronized byte [] get(String path) {
+		Write write = queued.get(path);
+		if (write == null) {
+			write = running.get(path);
+		}
+		return write == null ? null : write.content;
+	}
+
+	/**
+	 * Blocks until every write that was submitted before this call has been sent, writes that failed since the last flush are reported
+	 */
+	synchronized void flush() throws IOException {
+		long barrier = sequence;
+		while (isPending(barrier)) {
+			try {
+				wait();
+			}
+			catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+		if (!failures.isEmpty()) {
+			IOException exception = new IOException("Could not persist " + failures.size() + " write(s)");
+			for (IOException failure : failures) {
+				exception.addSuppressed(failure);
+			}
+			failures.clear();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Blocks until the writes to the given path that were submitted before this call have been sent, writes to other paths are not waited for
+	 * Failures are not reported here, they are left for the next full flush
+	 */
+	synchronized void flush(String path) throws IOException {
+		long barrier = sequence;
+		while (isPending(path, barrier)) {
+			try {
+				wait();
+			}
+			catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	private boolean isPending(String path, long barrier) {
+		Write write = queued.get(path);
+		if (write != null && write.since <= barrier) {
+			return true;
+		}
+		write = running.get(path);
+		return write != null && write.since <= barrier;
+	}
+
+	private boolean isPending(long barrier) {
+		for (Write write : queued.values()) {
+			if (write.since <= barrier) {
+				return true;
+			}
+		}
+		for (Write write : running.values()) {
+			if (write.since <= barrier) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void schedule(String path) {
+		final Write write = queued.remove(path);
+		if (write == null) {
+			return;
+		}
+		running.put(path, write);
+		try {
+			write.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					send(write);
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			running.remove(path);
+			pendingBytes -= write.content.length;
+			failures.add(new IOException("Could not schedule the write for: " + write.item.getUri(), e));
+			notifyAll();
+		}
+	}
+
+	private void send(Write write) {
+		Exception failure = null;
+		for (int i = 0; i < RETRIES; i++) {
+			try {
+				write.item.put(write.content);
+				failure = null;
+				break;
+			}
+			catch (Exception e) {
+				failure = e;
+				if (i < RETRIES - 1) {
+					try {
+						Thread.sleep(RETRY_INTERVAL * (i + 1));
+					}
+					catch (InterruptedException e1) {
+						break;
+					}
+				}
+			}
+		}
+		String path = write.item.getPath();
+		synchronized(this) {
+			running.remove(path);
+			pendingBytes -= write.content.length;
+			if (failure == null) {
+				// a newer write has replaced the journal entry
+				if (!queued.containsKey(path)) {
+					unjournal(path);
+				}
+			}
+			else {
+				// the journal entry stays so it can be replayed
+				logger.error("Could not persist data for: " + write.item.getUri(), failure);
+				failures.add(new IOException("Could not persist data for: " + write.item.getUri(), failure));
+			}
+			schedule(path);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Sends the writes that were left in the journal by a previous run, this happens on the calling thread
+	 */
+	void replay() {
+		// we need a container to resolve the items against
+		File [] files = journal == null || !(root instanceof RemoteContainer) ? null : journal.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (!file.isFile() || file.getName().endsWith(TEMPORARY_SUFFIX)) {
+				continue;
+			}
+			try {
+				DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				try {
+					// the journal may be shared by multiple servers
+					if (!getRootId().equals(input.readUTF())) {
+						continue;
+					}
+					String path = input.readUTF();
+					String contentType = input.readUTF();
+					byte [] content = new byte[input.readInt()];
+					input.readFully(content);
+					String name = path.replaceAll("^.*/", "");
+					new RemoteWritableItem((RemoteContainer) root, name, contentType.isEmpty() ? null : contentType, new Date(), path, (long) content.length, null, null).put(content);
+				}
+				finally {
+					input.close();
+				}
+				file.delete();
+			}
+			catch (Exception e) {
+				logger.error("Could not replay journaled write: " + file, e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the journal entry to a temporary file, returns null if there is no journal
+	 */
+	private File prepare(RemoteWritableItem item, byte [] content) throws IOException {
+		if (journal == null) {
+			return null;
+		}
+		if (!journal.exists()) {
+			journal.mkdirs();
+		}
+		File temporary = File.createTempFile(getJournalName(item.getPath()), TEMPORARY_SUFFIX, journal);
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			try {
+				output.writeUTF(getRootId());
+				output.writeUTF(item.getPath());
+				output.writeUTF(item.getContentType() == null ? "" : item.getContentType());
+				output.writeInt(content.length);
+				output.write(content);
+			}
+			finally {
+				output.close();
+			}
+			return temporary;
+		}
+		catch (IOException | RuntimeException e) {
+			temporary.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Moves a prepared journal entry in place, replacing the entry of an older write to the same path
+	 */
+	private void journal(File temporary, String path) throws IOException {
+		if (temporary == null) {
+			return;
+		}
+		File target = new File(journal, getJournalName(path));
+		try {
+			Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void unjournal(String path) {
+		if (journal != null) {
+			new File(journal, getJournalName(path)).delete();
+		}
+	}
+
+	private String getRootId() {
+		return root.getHostHeader().getValue() + root.getRoot();
+	}
+
+	private String getJournalName(String path) {
+		try {
+			byte [] digest = MessageDigest.getInstance("MD5").digest((getRootId() + path).getBytes("UTF-8"));
+			StringBuilder builder = new StringBuilder();
+			for (byte single : digest) {
+				builder.append(String.format("%02x", single & 0xff));
+			}
+			return builder.toString();
+		}
+		catch (NoSuchAlgorithmException | IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static class Write {
+		private long since;
+		private RemoteWritableItem item;
+		private byte [] content;
+		private Executor executor;
+
+		public Write(long sequence, RemoteWritableItem item, byte [] content, Executor executor) {
+			this.since = sequence;
+			this.item = item;
+			this.content = content;
+			this.executor = executor;
+		}
+	}
+}
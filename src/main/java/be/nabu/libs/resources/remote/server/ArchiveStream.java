@@ -0,0 +1,247 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import be.nabu.libs.resources.api.ManageableContainer;
+import be.nabu.libs.resources.api.ReadableResource;
+import be.nabu.libs.resources.api.Resource;
+import be.nabu.libs.resources.api.ResourceContainer;
+import be.nabu.libs.resources.api.TimestampedResource;
+import be.nabu.libs.resources.api.WritableResource;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.WritableContainer;
+
+/**
+ * Produces a zip of a container while it is being read, the tree is walked and the content copied only as far as the reader has consumed it
+ * Neither the archive nor the individual files are ever held in memory or on disk as a whole
+ * Hidden resources are left out, as they are in listings
+ */
+public class ArchiveStream extends InputStream {
+
+	public static final String CONTENT_TYPE = "application/zip";
+
+	// the amount of data we try to prepare in one go
+	private static final int BATCH_SIZE = 8192;
+
+	private Deque<Level> levels = new ArrayDeque<Level>();
+	private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private ZipOutputStream zip = new ZipOutputStream(buffer);
+	private byte [] chunk = new byte[BATCH_SIZE];
+	private byte [] current = new byte[0];
+	private int position;
+	private boolean finished;
+	// the content of the file we are currently copying, if any
+	private InputStream input;
+
+	public ArchiveStream(ResourceContainer<?> container) {
+		levels.push(new Level("", container.iterator()));
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return current[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int amount = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, amount);
+		position += amount;
+		return amount;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return current.length - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		levels.clear();
+		finished = true;
+		if (input != null) {
+			try {
+				input.close();
+			}
+			finally {
+				input = null;
+			}
+		}
+	}
+
+	/**
+	 * Makes sure there is data to read, returns false if the archive is complete
+	 */
+	private boolean fill() throws IOException {
+		if (position < current.length) {
+			return true;
+		}
+		while (!finished && buffer.size() < BATCH_SIZE) {
+			if (input != null) {
+				int read = input.read(chunk);
+				if (read < 0) {
+					input.close();
+					input = null;
+					zip.closeEntry();
+				}
+				else {
+					zip.write(chunk, 0, read);
+				}
+				continue;
+			}
+			Level level = levels.peek();
+			if (level == null) {
+				zip.finish();
+				finished = true;
+			}
+			else if (!level.children.hasNext()) {
+				levels.pop();
+			}
+			else {
+				Resource child = level.children.next();
+				if (child.getName().startsWith(".")) {
+					continue;
+				}
+				String name = level.path + child.getName();
+				if (child instanceof ResourceContainer) {
+					zip.putNextEntry(newEntry(name + "/", child));
+					zip.closeEntry();
+					levels.push(new Level(name + "/", ((ResourceContainer<?>) child).iterator()));
+				}
+				else if (child instanceof ReadableResource) {
+					zip.putNextEntry(newEntry(name, child));
+					input = IOUtils.toInputStream(((ReadableResource) child).getReadable());
+				}
+			}
+		}
+		current = buffer.toByteArray();
+		position = 0;
+		buffer.reset();
+		return current.length > 0;
+	}
+
+	private static ZipEntry newEntry(String name, Resource resource) {
+		ZipEntry entry = new ZipEntry(name);
+		if (resource instanceof TimestampedResource) {
+			Date lastModified = ((TimestampedResource) resource).getLastModified();
+			if (lastModified != null) {
+				entry.setTime(lastModified.getTime());
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Extracts a zip into the target as it is read, existing files are overwritten and missing folders are created
+	 * Every resource that is created or written is added to the map by its path relative to the target, also if the extraction fails halfway
+	 */
+	public static void extract(InputStream input, ManageableContainer<?> target, Map<String, Resource> extracted) throws IOException {
+		ZipInputStream zip = new ZipInputStream(input);
+		ZipEntry entry;
+		while ((entry = zip.getNextEntry()) != null) {
+			String path = ChangeLog.normalize(entry.getName().replace('\\', '/'));
+			if (path.isEmpty()) {
+				continue;
+			}
+			for (String part : path.split("/")) {
+				// don't allow entries to escape the target
+				if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+					throw new IOException("Invalid path in archive: " + entry.getName());
+				}
+			}
+			if (entry.isDirectory()) {
+				getContainer(target, path, extracted);
+				continue;
+			}
+			int index = path.lastIndexOf('/');
+			ManageableContainer<?> parent = index < 0 ? target : getContainer(target, path.substring(0, index), extracted);
+			String name = path.substring(index + 1);
+			Resource resource = parent.getChild(name);
+			if (resource == null) {
+				String contentType = URLConnection.guessContentTypeFromName(name);
+				resource = parent.create(name, contentType == null ? "application/octet-stream" : contentType);
+			}
+			if (!(resource instanceof WritableResource)) {
+				throw new IOException("Can not write to: " + path);
+			}
+			extracted.put(path, resource);
+			WritableContainer<ByteBuffer> writable = ((WritableResource) resource).getWritable();
+			try {
+				// the zip stream ends at the end of the entry
+				IOUtils.copyBytes(IOUtils.wrap(zip), writable);
+			}
+			finally {
+				writable.close();
+			}
+		}
+	}
+
+	/**
+	 * Resolves the folder at the given path, creating whatever is missing along the way
+	 */
+	private static ManageableContainer<?> getContainer(ManageableContainer<?> target, String path, Map<String, Resource> extracted) throws IOException {
+		ManageableContainer<?> current = target;
+		String currentPath = null;
+		for (String part : path.split("/")) {
+			currentPath = currentPath == null ? part : currentPath + "/" + part;
+			Resource child = current.getChild(part);
+			if (child == null) {
+				child = current.create(part, Resource.CONTENT_TYPE_DIRECTORY);
+				extracted.put(currentPath, child);
+			}
+			if (!(child instanceof ManageableContainer)) {
+				throw new IOException("Not a manageable folder: " + currentPath);
+			}
+			current = (ManageableContainer<?>) child;
+		}
+		return current;
+	}
+
+	private static class Level {
+		private String path;
+		private Iterator<? extends Resource> children;
+
+		public Level(String path, Iterator<? extends Resource> children) {
+			this.path = path;
+			this.children = children;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+
+import be.nabu.libs.resources.api.ResourceContainer;
+
+/**
+ * Keeps a bounded, in-memory journal of the changes made through the REST endpoints
+ * A token combines an identifier for this journal with a generation, a token from another journal (e.g. before a restart) or one that is older than the journal can no longer be answered
+ */
+public class ChangeLog {
+
+	private static Map<ResourceContainer<?>, ChangeLog> logs = new WeakHashMap<ResourceContainer<?>, ChangeLog>();
+
+	public static ChangeLog getInstance(ResourceContainer<?> root) {
+		synchronized(logs) {
+			ChangeLog log = logs.get(root);
+			if (log == null) {
+				log = new ChangeLog(Integer.parseInt(System.getProperty("resource.rest.changes", "10000")));
+				logs.put(root, log);
+			}
+			return log;
+		}
+	}
+
+	private String id = UUID.randomUUID().toString().replace("-", "");
+	private int capacity;
+	private long generation;
+	private Deque<Change> changes = new ArrayDeque<Change>();
+
+	public ChangeLog(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Records a change to the given path, the path is relative to the root without a leading slash
+	 */
+	public synchronized void record(String path, boolean deleted) {
+		record(new Change(++generation, normalize(path), deleted, false));
+	}
+
+	/**
+	 * Records that the subtree at the given path changed as a whole (e.g. an archive was extracted into it) without journaling every path in it
+	 * Anyone asking for changes in an overlapping subtree has to reload
+	 */
+	public synchronized void recordSubtree(String path) {
+		record(new Change(++generation, normalize(path), false, true));
+	}
+
+	private void record(Change change) {
+		changes.add(change);
+		while (changes.size() > capacity) {
+			changes.poll();
+		}
+		notifyAll();
+	}
+
+	public synchronized String getToken() {
+		return id + "-" + generation;
+	}
+
+	/**
+	 * Returns the latest change per path within the given subtree since the token or null if the token can not be answered
+	 * The value is true if the latest change was a delete
+	 */
+	public synchronized Map<String, Boolean> getChanges(String token, String path) {
+		Long since = getGeneration(token);
+		// the journal has been truncated beyond what the client knows
+		if (since == null || (!changes.isEmpty() && changes.peek().generation > since + 1) || (changes.isEmpty() && since != generation)) {
+			return null;
+		}
+		path = normalize(path);
+		Map<String, Boolean> result = new LinkedHashMap<String, Boolean>();
+		Iterator<Change> iterator = changes.iterator();
+		while (iterator.hasNext()) {
+			Change change = iterator.next();
+			if (change.generation > since && change.subtree && (isWithin(change.path, path) || isWithin(path, change.path))) {
+				return null;
+			}
+			else if (change.generation > since && isWithin(change.path, path)) {
+				// make sure the order reflects the latest change
+				result.remove(change.path);
+				result.put(change.path, change.deleted);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Blocks until there are changes in the subtree after the given token or the timeout expires
+	 * Returns true if the client should ask for the changes (which may also mean it has to reload)
+	 */
+	public synchronized boolean await(String token, String path, long timeout) throws InterruptedException {
+		long until = System.currentTimeMillis() + timeout;
+		while (true) {
+			Map<String, Boolean> changes = getChanges(token, path);
+			if (changes == null || !changes.isEmpty()) {
+				return true;
+			}
+			long remaining = until - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+	}
+
+	private Long getGeneration(String token) {
+		if (token == null || !token.startsWith(id + "-")) {
+			return null;
+		}
+		try {
+			long since = Long.parseLong(token.substring(id.length() + 1));
+			return since > generation ? null : since;
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	static boolean isWithin(String path, String parent) {
+		return parent.isEmpty() || path.equals(parent) || path.startsWith(parent + "/");
+	}
+
+	static String normalize(String path) {
+		if (path == null) {
+			return "";
+		}
+		while (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		while (path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		return path;
+	}
+
+	private static class Change {
+		private long generation;
+		private String path;
+		private boolean deleted, subtree;
+
+		public Change(long generation, String path, boolean deleted, boolean subtree) {
+			this.generation = generation;
+			this.path = path;
+			this.deleted = deleted;
+			this.subtree = subtree;
+		}
+	}
+}
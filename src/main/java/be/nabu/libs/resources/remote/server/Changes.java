@@ -0,0 +1,85 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+@XmlRootElement(name = "changes")
+public class Changes {
+
+	private String token;
+	private boolean reset;
+	private Long retryAfter;
+	private List<Entry> entries = new ArrayList<Entry>();
+	private List<String> deleted = new ArrayList<String>();
+
+	/**
+	 * The entries that were added or modified
+	 */
+	public List<Entry> getEntries() {
+		return entries;
+	}
+	public void setEntries(List<Entry> entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * The paths that were deleted
+	 */
+	public List<String> getDeleted() {
+		return deleted;
+	}
+	public void setDeleted(List<String> deleted) {
+		this.deleted = deleted;
+	}
+
+	@XmlAttribute
+	public String getToken() {
+		return token;
+	}
+	public void setToken(String token) {
+		this.token = token;
+	}
+
+	/**
+	 * If set, the changes could not be calculated and the client has to reload the full listing
+	 */
+	@XmlAttribute
+	public boolean isReset() {
+		return reset;
+	}
+	public void setReset(boolean reset) {
+		this.reset = reset;
+	}
+
+	/**
+	 * If set, the server did not wait for changes and the client should wait this many milliseconds before it polls again
+	 */
+	@XmlAttribute
+	public Long getRetryAfter() {
+		return retryAfter;
+	}
+	public void setRetryAfter(Long retryAfter) {
+		this.retryAfter = retryAfter;
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the hashes calculated for large resources so we don't have to digest them again on every full listing
+ * A hash is only valid as long as the size and last modified of the resource have not changed
+ * If a file location is set (system property "resource.rest.hashes"), the index survives a restart
+ */
+public class HashIndex {
+
+	private static volatile HashIndex instance;
+
+	public static HashIndex getInstance() {
+		if (instance == null) {
+			synchronized(HashIndex.class) {
+				if (instance == null) {
+					String location = System.getProperty("resource.rest.hashes");
+					instance = new HashIndex(location == null ? null : new File(location));
+				}
+			}
+		}
+		return instance;
+	}
+
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private File file;
+	// sorted so everything beneath a path can be found without scanning the whole index
+	private ConcurrentNavigableMap<String, Hash> hashes = new ConcurrentSkipListMap<String, Hash>();
+	private volatile boolean dirty;
+
+	public HashIndex(File file) {
+		this.file = file;
+		if (file != null && file.isFile()) {
+			try {
+				load();
+			}
+			catch (Exception e) {
+				logger.warn("Could not load hash index from: " + file, e);
+			}
+		}
+	}
+
+	public String get(String key, long size, Date lastModified) {
+		if (lastModified == null) {
+			return null;
+		}
+		Hash hash = hashes.get(key);
+		// the metadata has changed, the hash is no longer valid
+		if (hash != null && (hash.size != size || hash.lastModified != lastModified.getTime())) {
+			// only remove the hash we looked at, a concurrent put may already have replaced it
+			if (hashes.remove(key, hash)) {
+				dirty = true;
+			}
+			return null;
+		}
+		return hash == null ? null : hash.hash;
+	}
+
+	public void put(String key, long size, Date lastModified, String hash) {
+		// without a timestamp we can not validate the hash later on
+		if (lastModified != null && hash != null) {
+			hashes.put(key, new Hash(hash, size, lastModified.getTime()));
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Removes the hash for the given key and for anything that lives beneath it
+	 */
+	public void invalidate(String key) {
+		if (key.endsWith("/")) {
+			key = key.substring(0, key.length() - 1);
+		}
+		if (hashes.remove(key) != null) {
+			dirty = true;
+		}
+		Map<String, Hash> children = hashes.subMap(key + "/", key + "/\uffff");
+		if (!children.isEmpty()) {
+			children.clear();
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Persists the index if anything changed since the last save
+	 */
+	public synchronized void save() {
+		if (file == null || !dirty) {
+			return;
+		}
+		dirty = false;
+		try {
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null && !parent.exists()) {
+				parent.mkdirs();
+			}
+			// write to a temporary file first so a crash does not leave us with a half written index
+			File temporary = new File(parent, file.getName() + ".tmp");
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), Charset.forName("UTF-8")));
+			try {
+				for (Map.Entry<String, Hash> entry : hashes.entrySet()) {
+					writer.write(entry.getValue().hash + "\t" + entry.getValue().size + "\t" + entry.getValue().lastModified + "\t" + entry.getKey() + "\n");
+				}
+			}
+			finally {
+				writer.close();
+			}
+			if (!temporary.renameTo(file)) {
+				file.delete();
+				if (!temporary.renameTo(file)) {
+					throw new IOException("Could not move " + temporary + " to " + file);
+				}
+			}
+		}
+		catch (IOException e) {
+			dirty = true;
+			logger.warn("Could not save hash index to: " + file, e);
+		}
+	}
+
+	private void load() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String [] parts = line.split("\t", 4);
+				if (parts.length == 4) {
+					hashes.put(parts[3], new Hash(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	private static class Hash {
+		private String hash;
+		private long size, lastModified;
+
+		public Hash(String hash, long size, long lastModified) {
+			this.hash = hash;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+	}
+}
@@ -27,7 +27,7 @@ import javax.xml.bind.annotation.XmlRootElement;
 public class Listing {
 
 	private boolean manageable;
-	private String path;
+	private String path, version, token, next;
 	private List<Entry> entries = new ArrayList<Entry>();
 
 	public List<Entry> getEntries() {
@@ -46,6 +46,33 @@ public class Listing {
 		this.path = path;
 	}
 
+	@XmlAttribute
+	public String getVersion() {
+		return version;
+	}
+	public void setVersion(String version) {
+		this.version = version;
+	}
+
+	@XmlAttribute
+	public String getToken() {
+		return token;
+	}
+	public void setToken(String token) {
+		this.token = token;
+	}
+
+	/**
+	 * If the listing is paged and there are more entries, this is the cursor to request the next page with
+	 */
+	@XmlAttribute
+	public String getNext() {
+		return next;
+	}
+	public void setNext(String next) {
+		this.next = next;
+	}
+
 	@XmlAttribute
 	public boolean isManageable() {
 		return manageable;
@@ -0,0 +1,255 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.server;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import be.nabu.libs.resources.api.ResourceContainer;
+
+/**
+ * Keeps recently requested listings in their binary form so identical requests don't have to read and hash the content again
+ * The cache is bounded by the system property "resource.rest.listings" (bytes), a listing that takes more than a quarter of that is not kept
+ * Changes made through the REST endpoints invalidate the listings of the changed path, its ancestors and its descendants, listings older than "resource.rest.listings.maxAge" (ms) are dropped
+ * If "resource.rest.listings.validate" is set, a listing is only served if the fingerprint the caller calculated still matches, this picks up changes made directly on the backend but means walking it for every request
+ * Concurrent requests for the same listing wait for the first one to compute it, if it turns out too large to cache they compute it on their own
+ * Listings that were too large are remembered for a while so requests for them can be streamed right away
+ */
+public class ListingCache {
+
+	private static Map<ResourceContainer<?>, ListingCache> caches = new WeakHashMap<ResourceContainer<?>, ListingCache>();
+
+	public static ListingCache getInstance(ResourceContainer<?> root) {
+		synchronized(caches) {
+			ListingCache cache = caches.get(root);
+			if (cache == null) {
+				cache = new ListingCache(
+					Long.parseLong(System.getProperty("resource.rest.listings", Long.toString(1024l*1024*32))),
+					Long.parseLong(System.getProperty("resource.rest.listings.maxAge", Long.toString(1000l*60*5))),
+					Boolean.parseBoolean(System.getProperty("resource.rest.listings.validate", "false"))
+				);
+				caches.put(root, cache);
+			}
+			return cache;
+		}
+	}
+
+	private long maxSize, maxAge, size;
+	private boolean validating;
+	// bumped on every invalidation so a listing that was computed while something changed is not stored
+	private long generation;
+	// access ordered so the least recently used listings go first
+	private LinkedHashMap<String, Cached> entries = new LinkedHashMap<String, Cached>(16, 0.75f, true);
+	private Map<String, Load> loads = new HashMap<String, Load>();
+	// the listings that were too large to cache and when we found out
+	private LinkedHashMap<String, Long> oversized = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > 1024;
+		}
+	};
+
+	public ListingCache(long maxSize, long maxAge, boolean validating) {
+		this.maxSize = maxSize;
+		this.maxAge = maxAge;
+		this.validating = validating;
+	}
+
+	/**
+	 * Whether cached listings should be checked against a fingerprint of the backend
+	 */
+	public boolean isValidating() {
+		return validating;
+	}
+
+	/**
+	 * Listings that are larger than this are not cached
+	 */
+	public long getMaxEntrySize() {
+		return maxSize / 4;
+	}
+
+	/**
+	 * Whether the listing was recently found to be too large to cache, there is no point in waiting for or coordinating such requests
+	 */
+	public synchronized boolean isOversized(String key) {
+		Long since = oversized.get(key);
+		if (since != null && since < System.currentTimeMillis() - maxAge) {
+			oversized.remove(key);
+			since = null;
+		}
+		return since != null;
+	}
+
+	/**
+	 * Returns the cached listing if it has the given fingerprint (if any), if another request is computing it we wait for the result
+	 * If null is returned, the caller has to compute it and either put() the result or abandon() the attempt
+	 * A caller that waited for a computation which did not produce a usable result computes it on its own, it is not coordinated with others
+	 */
+	public Cached get(String key, String fingerprint) throws IOException {
+		CompletableFuture<Cached> future;
+		synchronized(this) {
+			Cached cached = entries.get(key);
+			if (cached != null && (cached.created < System.currentTimeMillis() - maxAge || !isFingerprint(cached, fingerprint))) {
+				remove(key);
+				cached = null;
+			}
+			if (cached != null) {
+				return cached;
+			}
+			Load load = loads.get(key);
+			if (load == null) {
+				loads.put(key, new Load(generation));
+				return null;
+			}
+			future = load.future;
+		}
+		try {
+			Cached cached = future.get();
+			// if the computation was abandoned (e.g. too large) or was for another fingerprint, we compute it ourselves rather than queueing up for another round
+			return cached != null && isFingerprint(cached, fingerprint) ? cached : null;
+		}
+		catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stores the result of a computation, a listing that is too large to cache should be abandoned instead
+	 */
+	public Cached put(String key, String path, String version, String fingerprint, byte [] content) {
+		Cached cached = new Cached(ChangeLog.normalize(path), version, fingerprint, content);
+		Load load;
+		synchronized(this) {
+			load = loads.remove(key);
+			// if something changed while we were building it, the listing may already be outdated
+			if (load != null && load.generation == generation) {
+				remove(key);
+				entries.put(key, cached);
+				size += cached.getWeight();
+				evict();
+			}
+		}
+		if (load != null) {
+			load.future.complete(cached);
+		}
+		return cached;
+	}
+
+	public void abandon(String key) {
+		abandon(key, false);
+	}
+
+	/**
+	 * Abandons the computation, if it was because the listing is too large to cache, that is remembered for later requests
+	 */
+	public void abandon(String key, boolean oversized) {
+		Load load;
+		synchronized(this) {
+			load = loads.remove(key);
+			if (oversized) {
+				this.oversized.put(key, System.currentTimeMillis());
+			}
+		}
+		if (load != null) {
+			load.future.complete(null);
+		}
+	}
+
+	/**
+	 * Drops every listing that contains the path or is contained by it
+	 */
+	public synchronized void invalidate(String path) {
+		path = ChangeLog.normalize(path);
+		generation++;
+		Iterator<Cached> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Cached cached = iterator.next();
+			if (ChangeLog.isWithin(path, cached.path) || ChangeLog.isWithin(cached.path, path)) {
+				iterator.remove();
+				size -= cached.getWeight();
+			}
+		}
+	}
+
+	private static boolean isFingerprint(Cached cached, String fingerprint) {
+		return fingerprint == null || fingerprint.equals(cached.fingerprint);
+	}
+
+	private void remove(String key) {
+		Cached removed = entries.remove(key);
+		if (removed != null) {
+			size -= removed.getWeight();
+		}
+	}
+
+	private void evict() {
+		Iterator<Cached> iterator = entries.values().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			size -= iterator.next().getWeight();
+			iterator.remove();
+		}
+	}
+
+	private static class Load {
+		private long generation;
+		private CompletableFuture<Cached> future = new CompletableFuture<Cached>();
+
+		public Load(long generation) {
+			this.generation = generation;
+		}
+	}
+
+	public static class Cached {
+		private String path, version, fingerprint;
+		private byte [] content;
+		private long created = System.currentTimeMillis();
+
+		Cached(String path, String version, String fingerprint, byte [] content) {
+			this.path = path;
+			this.version = version;
+			this.fingerprint = fingerprint;
+			this.content = content;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		/**
+		 * The listing in binary form
+		 */
+		public byte [] getContent() {
+			return content;
+		}
+
+		private long getWeight() {
+			return 256 + content.length;
+		}
+	}
+}
@@ -0,0 +1,365 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * A compact binary encoding for listings, an alternative to xml that is cheaper to produce and parse
+ * 
+ * listing: magic, body
+ * body: flags (1 byte), path, version, token, next, (ENTRY entry)*, END
+ * entry: name, path, contentType, hash, size, lastModified, flags (1 byte), [content], [body]
+ * 
+ * Strings are encoded as a varint of the byte length + 1 (0 is null) followed by the utf-8 bytes
+ * Numbers are encoded as a varint of the value + 1 (0 is null), content as a varint length followed by the raw bytes
+ */
+public class ListingCodec {
+
+	public static final String CONTENT_TYPE = "application/x-nabu-listing";
+
+	static final byte [] MAGIC = new byte [] { 'N', 'R', 'L', '1' };
+	static final int END = 0, ENTRY = 1;
+	static final int FLAG_MANAGEABLE = 1;
+	static final int FLAG_WRITABLE = 1, FLAG_CONTENT = 2, FLAG_CHILDREN = 4;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static void write(Listing listing, OutputStream output) throws IOException {
+		output.write(MAGIC);
+		writeBody(listing, output);
+	}
+
+	private static void writeBody(Listing listing, OutputStream output) throws IOException {
+		writeHeader(listing, output);
+		if (listing.getEntries() != null) {
+			for (Entry entry : listing.getEntries()) {
+				writeEntry(entry, output);
+				if (entry.getChildren() != null) {
+					writeBody(entry.getChildren(), output);
+				}
+			}
+		}
+		output.write(END);
+	}
+
+	static void writeHeader(Listing listing, OutputStream output) throws IOException {
+		output.write(listing.isManageable() ? FLAG_MANAGEABLE : 0);
+		writeString(listing.getPath(), output);
+		writeString(listing.getVersion(), output);
+		writeString(listing.getToken(), output);
+		writeString(listing.getNext(), output);
+	}
+
+	/**
+	 * Writes the entry itself, if it has children the body of the child listing has to follow immediately
+	 */
+	static void writeEntry(Entry entry, OutputStream output) throws IOException {
+		output.write(ENTRY);
+		writeString(entry.getName(), output);
+		writeString(entry.getPath(), output);
+		writeString(entry.getContentType(), output);
+		writeString(entry.getHash(), output);
+		writeNumber(entry.getSize(), output);
+		writeNumber(entry.getLastModified() == null ? null : entry.getLastModified().getTime(), output);
+		int flags = (entry.isWritable() ? FLAG_WRITABLE : 0) | (entry.getContent() != null ? FLAG_CONTENT : 0) | (entry.getChildren() != null ? FLAG_CHILDREN : 0);
+		output.write(flags);
+		if (entry.getContent() != null) {
+			writeVarLong(entry.getContent().length, output);
+			output.write(entry.getContent());
+		}
+	}
+
+	/**
+	 * Returns the offset at which the entries of a binary listing start
+	 */
+	static int getBodyOffset(byte [] listing) throws IOException {
+		ByteArrayInputStream input = new ByteArrayInputStream(listing, MAGIC.length, listing.length - MAGIC.length);
+		readHeader(input);
+		return listing.length - input.available();
+	}
+
+	/**
+	 * Rewrites the header of a binary listing with the given version, the entries are copied as they are
+	 */
+	static byte [] setVersion(byte [] listing, String version) throws IOException {
+		ByteArrayInputStream input = new ByteArrayInputStream(listing, MAGIC.length, listing.length - MAGIC.length);
+		Listing header = readHeader(input);
+		header.setVersion(version);
+		int offset = listing.length - input.available();
+		ByteArrayOutputStream output = new ByteArrayOutputStream(listing.length + 64);
+		output.write(MAGIC);
+		writeHeader(header, output);
+		output.write(listing, offset, listing.length - offset);
+		return output.toByteArray();
+	}
+
+	public static Listing read(InputStream input) throws IOException {
+		Reader reader = newReader(input);
+		Listing listing = reader.getListing();
+		readBody(reader, listing);
+		return listing;
+	}
+
+	private static void readBody(Reader reader, Listing listing) throws IOException {
+		Entry entry;
+		while ((entry = reader.next()) != null) {
+			if (entry.getChildren() != null) {
+				readBody(reader, entry.getChildren());
+			}
+			listing.getEntries().add(entry);
+		}
+	}
+
+	/**
+	 * Reads the entries from a binary listing as they arrive
+	 */
+	public static Reader newReader(InputStream input) throws IOException {
+		return new StreamReader(input);
+	}
+
+	/**
+	 * Reads the entries from a listing that was already parsed, for instance from xml
+	 */
+	public static Reader newReader(Listing listing) {
+		return new TreeReader(listing);
+	}
+
+	/**
+	 * Pulls the entries from a listing one at a time so the caller can process them without building the whole listing
+	 * If an entry has children, the next calls return the child entries until null is returned, after which the entries of the parent continue
+	 */
+	public interface Reader extends Closeable {
+		/**
+		 * The header of the top level listing, the entries are not filled in
+		 */
+		public Listing getListing();
+		/**
+		 * Returns the next entry of the current listing or null if it has no more entries
+		 * The children of the entry are not null if they were included, but they can only be read through this reader
+		 */
+		public Entry next() throws IOException;
+		/**
+		 * Skips the remaining entries of the current listing, including their children
+		 */
+		public default void skip() throws IOException {
+			Entry entry;
+			while ((entry = next()) != null) {
+				if (entry.getChildren() != null) {
+					skip();
+				}
+			}
+		}
+	}
+
+	private static class StreamReader implements Reader {
+		private InputStream input;
+		private Listing listing;
+
+		public StreamReader(InputStream input) throws IOException {
+			this.input = input;
+			byte [] magic = new byte[MAGIC.length];
+			readFully(input, magic);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (magic[i] != MAGIC[i]) {
+					throw new IOException("Not a binary listing");
+				}
+			}
+			this.listing = readHeader(input);
+		}
+
+		@Override
+		public Listing getListing() {
+			return listing;
+		}
+
+		@Override
+		public Entry next() throws IOException {
+			if (readByte(input) != ENTRY) {
+				return null;
+			}
+			Entry entry = new Entry();
+			if (readEntry(entry, input)) {
+				entry.setChildren(readHeader(input));
+			}
+			return entry;
+		}
+
+		@Override
+		public void close() throws IOException {
+			input.close();
+		}
+	}
+
+	private static class TreeReader implements Reader {
+		private Listing listing;
+		private Deque<Iterator<Entry>> levels = new ArrayDeque<Iterator<Entry>>();
+
+		public TreeReader(Listing listing) {
+			this.listing = listing;
+			levels.push(iterator(listing));
+		}
+
+		@Override
+		public Listing getListing() {
+			return listing;
+		}
+
+		@Override
+		public Entry next() {
+			if (levels.isEmpty()) {
+				return null;
+			}
+			Iterator<Entry> iterator = levels.peek();
+			if (!iterator.hasNext()) {
+				levels.pop();
+				return null;
+			}
+			Entry entry = iterator.next();
+			if (entry.getChildren() != null) {
+				levels.push(iterator(entry.getChildren()));
+			}
+			return entry;
+		}
+
+		private static Iterator<Entry> iterator(Listing listing) {
+			return listing == null || listing.getEntries() == null ? Collections.<Entry>emptyIterator() : listing.getEntries().iterator();
+		}
+
+		@Override
+		public void close() {
+			// nothing to release
+		}
+	}
+
+	static Listing readHeader(InputStream input) throws IOException {
+		Listing listing = new Listing();
+		listing.setManageable((readByte(input) & FLAG_MANAGEABLE) != 0);
+		listing.setPath(readString(input));
+		listing.setVersion(readString(input));
+		listing.setToken(readString(input));
+		listing.setNext(readString(input));
+		return listing;
+	}
+
+	/**
+	 * Reads the fields of an entry (the ENTRY marker has already been consumed), returns true if a child listing body follows
+	 */
+	static boolean readEntry(Entry entry, InputStream input) throws IOException {
+		entry.setName(readString(input));
+		entry.setPath(readString(input));
+		entry.setContentType(readString(input));
+		entry.setHash(readString(input));
+		entry.setSize(readNumber(input));
+		Long lastModified = readNumber(input);
+		entry.setLastModified(lastModified == null ? null : new Date(lastModified));
+		int flags = readByte(input);
+		entry.setWritable((flags & FLAG_WRITABLE) != 0);
+		if ((flags & FLAG_CONTENT) != 0) {
+			long length = readVarLong(input);
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("Inline content too large: " + length);
+			}
+			byte [] content = new byte[(int) length];
+			readFully(input, content);
+			entry.setContent(content);
+		}
+		return (flags & FLAG_CHILDREN) != 0;
+	}
+
+	static int readByte(InputStream input) throws IOException {
+		int read = input.read();
+		if (read < 0) {
+			throw new EOFException("Unexpected end of listing");
+		}
+		return read;
+	}
+
+	private static void readFully(InputStream input, byte [] bytes) throws IOException {
+		int offset = 0;
+		while (offset < bytes.length) {
+			int read = input.read(bytes, offset, bytes.length - offset);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of listing");
+			}
+			offset += read;
+		}
+	}
+
+	static void writeString(String value, OutputStream output) throws IOException {
+		if (value == null) {
+			writeVarLong(0, output);
+		}
+		else {
+			byte [] bytes = value.getBytes(UTF8);
+			writeVarLong(bytes.length + 1, output);
+			output.write(bytes);
+		}
+	}
+
+	static String readString(InputStream input) throws IOException {
+		long length = readVarLong(input);
+		if (length == 0) {
+			return null;
+		}
+		byte [] bytes = new byte[(int) (length - 1)];
+		readFully(input, bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static void writeNumber(Long value, OutputStream output) throws IOException {
+		writeVarLong(value == null ? 0 : value + 1, output);
+	}
+
+	private static Long readNumber(InputStream input) throws IOException {
+		long value = readVarLong(input);
+		return value == 0 ? null : value - 1;
+	}
+
+	static void writeVarLong(long value, OutputStream output) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			output.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		output.write((int) value);
+	}
+
+	static long readVarLong(InputStream input) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int read = readByte(input);
+			value |= (long) (read & 0x7F) << shift;
+			if ((read & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+}
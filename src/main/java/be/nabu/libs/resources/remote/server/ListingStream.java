@@ -0,0 +1,243 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import be.nabu.libs.resources.api.ManageableContainer;
+import be.nabu.libs.resources.api.Resource;
+import be.nabu.libs.resources.api.ResourceContainer;
+
+/**
+ * Produces a binary listing while it is being read, the tree is only walked as far as the client has consumed it
+ * Only the iterators of the folders we are currently in are kept, so the memory use does not depend on the size of the tree
+ * For full listings the next few entries of a folder are prepared ahead of time on the shared listing pool, so content is read and hashed concurrently
+ */
+class ListingStream extends InputStream {
+
+	// the amount of data we try to prepare in one go
+	private static final int BATCH_SIZE = 8192;
+
+	private ResourceREST rest;
+	private int depth;
+	private String full;
+	private Deque<Level> levels = new ArrayDeque<Level>();
+	private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private byte [] current = new byte[0];
+	private int position;
+	private boolean finished;
+	private ForkJoinPool pool;
+	private int lookahead;
+
+	ListingStream(ResourceREST rest, Listing header, Iterator<? extends Resource> children, int depth, String full) throws IOException {
+		this.rest = rest;
+		this.depth = depth;
+		this.full = full;
+		this.pool = "true".equals(full) ? ListingWalker.getPool() : null;
+		this.lookahead = pool == null ? 0 : pool.getParallelism() * 2;
+		buffer.write(ListingCodec.MAGIC);
+		ListingCodec.writeHeader(header, buffer);
+		levels.push(new Level(header.getPath(), children, 1, null));
+	}
+
+	/**
+	 * Produces a flat listing of resources that were resolved elsewhere, each resource comes with its own path
+	 */
+	ListingStream(ResourceREST rest, Listing header, List<? extends Resource> resources, List<String> paths, String full) throws IOException {
+		this(rest, header, resources.iterator(), 1, full);
+		levels.peek().paths = paths.iterator();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return current[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int amount = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, amount);
+		position += amount;
+		return amount;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return current.length - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Level level : levels) {
+			level.cancel();
+		}
+		levels.clear();
+		finish();
+	}
+
+	/**
+	 * Makes sure there is data to read, returns false if the listing is complete
+	 */
+	private boolean fill() throws IOException {
+		if (position < current.length) {
+			return true;
+		}
+		while (!levels.isEmpty() && buffer.size() < BATCH_SIZE) {
+			Level level = levels.peek();
+			Pending next = level.next();
+			if (next == null) {
+				buffer.write(ListingCodec.END);
+				levels.pop();
+				continue;
+			}
+			Resource child = next.resource;
+			Entry entry = next.get();
+			if (level.depth < depth && child instanceof ResourceContainer) {
+				Listing children = new Listing();
+				children.setPath(entry.getPath());
+				children.setManageable(child instanceof ManageableContainer);
+				// only the header is written here, the entries follow as we walk the child
+				entry.setChildren(children);
+				ListingCodec.writeEntry(entry, buffer);
+				ListingCodec.writeHeader(children, buffer);
+				levels.push(new Level(entry.getPath(), ((ResourceContainer<?>) child).iterator(), level.depth + 1, null));
+			}
+			else {
+				ListingCodec.writeEntry(entry, buffer);
+			}
+		}
+		current = buffer.toByteArray();
+		position = 0;
+		buffer.reset();
+		if (current.length == 0) {
+			finish();
+			return false;
+		}
+		return true;
+	}
+
+	private void finish() {
+		if (!finished) {
+			finished = true;
+			// persist any hashes we calculated along the way
+			if ("true".equals(full)) {
+				HashIndex.getInstance().save();
+			}
+		}
+	}
+
+	private class Level {
+		private String path;
+		private Iterator<? extends Resource> children;
+		private int depth;
+		// if set, the children are not in this folder but at the given paths
+		private Iterator<String> paths;
+		private Deque<Pending> window = new ArrayDeque<Pending>();
+
+		public Level(String path, Iterator<? extends Resource> children, int depth, Iterator<String> paths) {
+			this.path = path;
+			this.children = children;
+			this.depth = depth;
+			this.paths = paths;
+		}
+
+		/**
+		 * Returns the next visible child, making sure the window of prepared entries stays filled
+		 */
+		private Pending next() {
+			while (window.size() <= lookahead && children.hasNext()) {
+				Resource child = children.next();
+				if (paths != null) {
+					window.add(new Pending(child, paths.next()));
+				}
+				else if (!child.getName().startsWith(".")) {
+					window.add(new Pending(child, ResourceREST.getChildPath(path, child.getName())));
+				}
+			}
+			return window.poll();
+		}
+
+		private void cancel() {
+			for (Pending pending : window) {
+				if (pending.future != null) {
+					pending.future.cancel(false);
+				}
+			}
+			window.clear();
+		}
+	}
+
+	private class Pending {
+		private Resource resource;
+		private String path;
+		private Future<Entry> future;
+
+		public Pending(final Resource resource, final String path) {
+			this.resource = resource;
+			this.path = path;
+			if (pool != null) {
+				future = pool.submit(new Callable<Entry>() {
+					@Override
+					public Entry call() throws Exception {
+						return rest.toEntry(resource, path, full);
+					}
+				});
+			}
+		}
+
+		private Entry get() throws IOException {
+			if (future == null) {
+				return rest.toEntry(resource, path, full);
+			}
+			try {
+				return future.get();
+			}
+			catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				else if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import be.nabu.libs.resources.api.ManageableContainer;
+import be.nabu.libs.resources.api.Resource;
+import be.nabu.libs.resources.api.ResourceContainer;
+
+/**
+ * Walks a tree on a shared fork/join pool so sibling folders are listed and large files are hashed concurrently
+ * The pool is shared by all listings and its size is capped by the system property "resource.rest.parallelism" so a single listing can not take over the server
+ * A parallelism of 1 disables the pool, the listing is then built on the request thread
+ */
+class ListingWalker {
+
+	private static ForkJoinPool pool;
+	private static boolean initialized;
+
+	static synchronized ForkJoinPool getPool() {
+		if (!initialized) {
+			initialized = true;
+			int parallelism = Integer.parseInt(System.getProperty("resource.rest.parallelism", Integer.toString(Runtime.getRuntime().availableProcessors())));
+			if (parallelism > 1) {
+				pool = new ForkJoinPool(parallelism);
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Fills in the entries of the listing for the given children, containers are descended into up to the given depth
+	 */
+	static Listing walk(ForkJoinPool pool, ResourceREST rest, Listing listing, List<Resource> children, int depth, String full) throws IOException {
+		try {
+			return pool.invoke(new ListTask(rest, listing, children, depth, full));
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static List<Resource> getVisibleChildren(ResourceContainer<?> container) {
+		List<Resource> children = new ArrayList<Resource>();
+		for (Resource child : container) {
+			if (!child.getName().startsWith(".")) {
+				children.add(child);
+			}
+		}
+		return children;
+	}
+
+	private static class ListTask extends RecursiveTask<Listing> {
+		private static final long serialVersionUID = 1L;
+		private ResourceREST rest;
+		private Listing listing;
+		private List<Resource> children;
+		private int depth;
+		private String full;
+
+		public ListTask(ResourceREST rest, Listing listing, List<Resource> children, int depth, String full) {
+			this.rest = rest;
+			this.listing = listing;
+			this.children = children;
+			this.depth = depth;
+			this.full = full;
+		}
+
+		@Override
+		protected Listing compute() {
+			List<EntryTask> tasks = new ArrayList<EntryTask>();
+			for (Resource child : children) {
+				tasks.add(new EntryTask(rest, child, ResourceREST.getChildPath(listing.getPath(), child.getName()), depth, full));
+			}
+			invokeAll(tasks);
+			// keep the order in which the container returned them
+			for (EntryTask task : tasks) {
+				listing.getEntries().add(task.join());
+			}
+			return listing;
+		}
+	}
+
+	private static class EntryTask extends RecursiveTask<Entry> {
+		private static final long serialVersionUID = 1L;
+		private ResourceREST rest;
+		private Resource resource;
+		private String path, full;
+		private int depth;
+
+		public EntryTask(ResourceREST rest, Resource resource, String path, int depth, String full) {
+			this.rest = rest;
+			this.resource = resource;
+			this.path = path;
+			this.depth = depth;
+			this.full = full;
+		}
+
+		@Override
+		protected Entry compute() {
+			try {
+				Entry entry = rest.toEntry(resource, path, full);
+				if (depth > 1 && resource instanceof ResourceContainer) {
+					Listing children = new Listing();
+					children.setPath(path);
+					children.setManageable(resource instanceof ManageableContainer);
+					entry.setChildren(new ListTask(rest, children, getVisibleChildren((ResourceContainer<?>) resource), depth - 1, full).compute());
+				}
+				return entry;
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
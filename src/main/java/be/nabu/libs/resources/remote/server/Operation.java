@@ -0,0 +1,107 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.server;
+
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+@XmlRootElement(name = "operation")
+@XmlType(propOrder = { "type", "path", "contentType", "content", "code", "message", "exists" })
+public class Operation {
+
+	public static final String MKDIR = "mkdir", CREATE = "create", PUT = "put", DELETE = "delete", EXISTS = "exists";
+
+	private String type, path, contentType, message;
+	private byte [] content;
+	private Integer code;
+	private Boolean exists;
+
+	public Operation() {
+		// auto construct
+	}
+
+	public Operation(String type, String path) {
+		this.type = type;
+		this.path = path;
+	}
+
+	/**
+	 * One of mkdir, create, put, delete or exists
+	 */
+	public String getType() {
+		return type;
+	}
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getPath() {
+		return path;
+	}
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * The content type for a create
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	/**
+	 * The content for a put, it is not sent back
+	 */
+	public byte[] getContent() {
+		return content;
+	}
+	public void setContent(byte[] content) {
+		this.content = content;
+	}
+
+	/**
+	 * The result of the operation as an http status code
+	 */
+	public Integer getCode() {
+		return code;
+	}
+	public void setCode(Integer code) {
+		this.code = code;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	/**
+	 * The answer to an exists
+	 */
+	public Boolean getExists() {
+		return exists;
+	}
+	public void setExists(Boolean exists) {
+		this.exists = exists;
+	}
+
+}
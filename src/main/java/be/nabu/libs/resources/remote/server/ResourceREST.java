@@ -17,13 +17,38 @@
 
 package be.nabu.libs.resources.remote.server;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.net.URI;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
 
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
@@ -34,8 +59,11 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 
 import be.nabu.libs.http.HTTPException;
+import be.nabu.libs.http.api.HTTPResponse;
+import be.nabu.libs.http.core.DefaultHTTPResponse;
 import be.nabu.libs.resources.ResourceReadableContainer;
 import be.nabu.libs.resources.ResourceUtils;
+import be.nabu.libs.resources.URIUtils;
 import be.nabu.libs.resources.api.FiniteResource;
 import be.nabu.libs.resources.api.ManageableContainer;
 import be.nabu.libs.resources.api.ReadableResource;
@@ -43,13 +71,19 @@ import be.nabu.libs.resources.api.Resource;
 import be.nabu.libs.resources.api.ResourceContainer;
 import be.nabu.libs.resources.api.TimestampedResource;
 import be.nabu.libs.resources.api.WritableResource;
+import be.nabu.libs.resources.api.features.CacheableResource;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.binding.api.Window;
+import be.nabu.libs.types.binding.xml.XMLBinding;
+import be.nabu.libs.types.java.BeanResolver;
 import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
 import be.nabu.utils.io.api.ReadableContainer;
 import be.nabu.utils.io.api.WritableContainer;
-import be.nabu.utils.mime.api.Part;
 import be.nabu.utils.mime.impl.MimeHeader;
 import be.nabu.utils.mime.impl.PlainMimeContentPart;
+import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
 import be.nabu.utils.security.DigestAlgorithm;
 import be.nabu.utils.security.SecurityUtils;
 
@@ -73,7 +107,7 @@ public class ResourceREST {
 	
 	@Path("/resource/{path : .+}")
 	@GET
-	public Part read(@PathParam("path") String path) throws IOException {
+	public HTTPResponse read(@PathParam("path") String path, @HeaderParam("Range") String range, @HeaderParam("If-None-Match") String ifNoneMatch, @HeaderParam("If-Modified-Since") String ifModifiedSince) throws IOException {
 		Resource resolved = ResourceUtils.resolve(root, path);
 		if (resolved == null) {
 			throw new HTTPException(404, "Could not find: " + path);
@@ -84,18 +118,119 @@ public class ResourceREST {
 		if (!(resolved instanceof FiniteResource)) {
 			throw new HTTPException(500, "Can not establish the size of the requested resource");
 		}
-		ReadableContainer<ByteBuffer> content = new ResourceReadableContainer((ReadableResource) resolved);
-		return new PlainMimeContentPart(null, content, 
-			new MimeHeader("Content-Length", new Long(((FiniteResource) resolved).getSize()).toString()),
+		long size = ((FiniteResource) resolved).getSize();
+		Date lastModified = resolved instanceof TimestampedResource ? ((TimestampedResource) resolved).getLastModified() : null;
+		String etag = getETag(resolved, size, lastModified);
+		if (isNotModified(etag, lastModified, ifNoneMatch, ifModifiedSince)) {
+			return new DefaultHTTPResponse(304, "Not Modified", new PlainMimeEmptyPart(null,
+				new MimeHeader("Content-Length", "0"),
+				new MimeHeader("ETag", etag)
+			));
+		}
+		long [] bounds = getRange(range, size);
+		if (bounds == null) {
+			ReadableContainer<ByteBuffer> content = new ResourceReadableContainer((ReadableResource) resolved);
+			PlainMimeContentPart part = new PlainMimeContentPart(null, content, 
+				new MimeHeader("Content-Length", new Long(size).toString()),
+				new MimeHeader("Content-Type", resolved.getContentType() == null ? "application/octet-stream" : resolved.getContentType()),
+				new MimeHeader("Content-Disposition", "attachment;filename=" + resolved.getName()),
+				new MimeHeader("Accept-Ranges", "bytes"),
+				new MimeHeader("Writable", Boolean.toString(resolved instanceof WritableResource))
+			);
+			if (etag != null) {
+				part.setHeader(new MimeHeader("ETag", etag));
+			}
+			if (lastModified != null) {
+				part.setHeader(new MimeHeader("Last-Modified", formatDate(lastModified)));
+			}
+			return new DefaultHTTPResponse(200, "OK", part);
+		}
+		else if (bounds[0] >= size || bounds[0] > bounds[1]) {
+			return new DefaultHTTPResponse(416, "Requested Range Not Satisfiable", new PlainMimeEmptyPart(null,
+				new MimeHeader("Content-Length", "0"),
+				new MimeHeader("Content-Range", "bytes */" + size)
+			));
+		}
+		long length = bounds[1] - bounds[0] + 1;
+		InputStream input = IOUtils.toInputStream(((ReadableResource) resolved).getReadable());
+		try {
+			// file based streams skip without actually reading the data
+			long skipped = 0;
+			while (skipped < bounds[0]) {
+				long amount = input.skip(bounds[0] - skipped);
+				if (amount <= 0) {
+					if (input.read() < 0) {
+						throw new HTTPException(500, "Could not skip to offset " + bounds[0] + " in: " + path);
+					}
+					amount = 1;
+				}
+				skipped += amount;
+			}
+		}
+		catch (IOException e) {
+			input.close();
+			throw e;
+		}
+		return new DefaultHTTPResponse(206, "Partial Content", new PlainMimeContentPart(null, IOUtils.limitReadable(IOUtils.wrap(input), length), 
+			new MimeHeader("Content-Length", new Long(length).toString()),
+			new MimeHeader("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + size),
 			new MimeHeader("Content-Type", resolved.getContentType() == null ? "application/octet-stream" : resolved.getContentType()),
-			new MimeHeader("Content-Disposition", "attachment;filename=" + resolved.getName()),
+			new MimeHeader("Accept-Ranges", "bytes"),
 			new MimeHeader("Writable", Boolean.toString(resolved instanceof WritableResource))
-		);
+		));
+	}
+	
+	/**
+	 * Parses a single byte range, multiple ranges are not supported and result in the full content being sent back
+	 * The end of the range is inclusive, a start beyond the size indicates an unsatisfiable range
+	 */
+	static long [] getRange(String range, long size) {
+		if (range == null || !range.trim().startsWith("bytes=") || range.contains(",")) {
+			return null;
+		}
+		String value = range.trim().substring("bytes=".length()).trim();
+		int index = value.indexOf('-');
+		if (index < 0) {
+			return null;
+		}
+		try {
+			String start = value.substring(0, index).trim();
+			String end = value.substring(index + 1).trim();
+			// a suffix range: the last x bytes
+			if (start.isEmpty()) {
+				if (end.isEmpty()) {
+					return null;
+				}
+				long suffix = Long.parseLong(end);
+				return new long [] { Math.max(0, size - suffix), size - 1 };
+			}
+			long from = Long.parseLong(start);
+			long to = end.isEmpty() ? size - 1 : Math.min(Long.parseLong(end), size - 1);
+			return new long [] { from, to };
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
 	}
 	
 	@Path("/resource/{path : .+}")
 	@PUT
 	public void write(@PathParam("path") String path, InputStream content) throws IOException {
+		WritableResource resolved = getWritableResource(path);
+		WritableContainer<ByteBuffer> writable = resolved.getWritable();
+		try {
+			if (content != null) {
+				IOUtils.copyBytes(IOUtils.wrap(content), writable);
+			}
+		}
+		finally {
+			writable.close();
+			invalidate(resolved);
+			changed(path, false);
+		}
+	}
+	
+	private WritableResource getWritableResource(String path) throws IOException {
 		if (path.startsWith("/")) {
 			path = path.substring(1);
 		}
@@ -109,7 +244,12 @@ public class ResourceREST {
 			else {
 				parent = ResourceUtils.resolve(root, path.substring(0, index));
 				if (parent == null) {
+					// only the highest folder that did not exist yet is a change, the rest is part of it
+					String created = getFirstMissing(path.substring(0, index));
 					parent = ResourceUtils.mkdirs(root, path.substring(0, index));
+					if (created != null) {
+						changed(created, false);
+					}
 				}
 			}
 			if (!(parent instanceof ManageableContainer)) {
@@ -124,15 +264,133 @@ public class ResourceREST {
 		if (!(resolved instanceof WritableResource)) {
 			throw new IOException("Could not find or create resource: " + path);
 		}
-		WritableContainer<ByteBuffer> writable = ((WritableResource) resolved).getWritable();
+		return (WritableResource) resolved;
+	}
+	
+	/**
+	 * Starts a multipart upload for the given path, the parts are staged until the upload is committed
+	 */
+	@Path("/upload/{path : .+}")
+	@POST
+	public String startUpload(@PathParam("path") String path) throws IOException {
+		return Uploads.getInstance().start(path);
+	}
+	
+	@Path("/uploads/{id}/{part}")
+	@PUT
+	public void uploadPart(@PathParam("id") String id, @PathParam("part") Integer part, InputStream content) throws IOException {
+		Uploads.getInstance().putPart(id, part, content);
+	}
+	
+	/**
+	 * Lists the parts that have been received so far, this allows a client to resume an upload
+	 */
+	@Path("/uploads/{id}")
+	@GET
+	public String getUploadedParts(@PathParam("id") String id) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		for (Integer part : Uploads.getInstance().getParts(id)) {
+			if (builder.length() > 0) {
+				builder.append(",");
+			}
+			builder.append(part);
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * Assembles the parts into the target resource, this only happens once all parts have been received
+	 * The parts are written to a hidden sibling first which only replaces the target once everything is in, so a failure halfway leaves the target untouched
+	 */
+	@Path("/uploads/{id}")
+	@POST
+	public void commitUpload(@PathParam("id") String id, @QueryParam("parts") Integer parts) throws IOException {
+		if (parts == null || parts < 0) {
+			throw new HTTPException(400, "The amount of parts is required");
+		}
+		Uploads uploads = Uploads.getInstance();
+		String path = ChangeLog.normalize(uploads.getPath(id));
+		int index = path.lastIndexOf('/');
+		String name = path.substring(index + 1);
+		WritableResource temporary;
+		InputStream input = uploads.open(id, parts);
 		try {
-			if (content != null) {
-				IOUtils.copyBytes(IOUtils.wrap(content), writable);
+			temporary = getWritableResource((index < 0 ? "" : path.substring(0, index + 1)) + "." + name + "." + id + ".upload");
+			try {
+				WritableContainer<ByteBuffer> writable = temporary.getWritable();
+				try {
+					IOUtils.copyBytes(IOUtils.wrap(input), writable);
+				}
+				finally {
+					writable.close();
+				}
+			}
+			catch (IOException | RuntimeException e) {
+				((ManageableContainer<?>) temporary.getParent()).delete(temporary.getName());
+				throw e;
 			}
 		}
 		finally {
-			writable.close();
+			input.close();
+		}
+		replace(temporary, path);
+		uploads.remove(id);
+	}
+	
+	/**
+	 * Puts a fully written resource in place of the one at the given path, on a file system this is an atomic rename
+	 * Other backends get a copy, which still only touches the target once all the content is available
+	 */
+	private void replace(WritableResource temporary, String path) throws IOException {
+		ManageableContainer<?> parent = (ManageableContainer<?>) temporary.getParent();
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		boolean renamed = false;
+		URI from = ResourceUtils.getURI(temporary);
+		if ("file".equals(from.getScheme())) {
+			try {
+				Files.move(Paths.get(from), Paths.get(from).resolveSibling(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				renamed = true;
+				// the backend may have cached the children of the folder
+				if (parent instanceof CacheableResource) {
+					((CacheableResource) parent).resetCache();
+				}
+			}
+			catch (IOException e) {
+				// e.g. the file system does not support atomic moves, fall back to a copy
+			}
 		}
+		if (!renamed) {
+			try {
+				WritableResource target = getWritableResource(path);
+				ReadableContainer<ByteBuffer> readable = ((ReadableResource) temporary).getReadable();
+				try {
+					WritableContainer<ByteBuffer> writable = target.getWritable();
+					try {
+						IOUtils.copyBytes(readable, writable);
+					}
+					finally {
+						writable.close();
+					}
+				}
+				finally {
+					readable.close();
+				}
+			}
+			finally {
+				parent.delete(temporary.getName());
+			}
+		}
+		Resource target = ResourceUtils.resolve(root, path);
+		if (target != null) {
+			invalidate(target);
+		}
+		changed(path, false);
+	}
+	
+	@Path("/uploads/{id}")
+	@DELETE
+	public void abortUpload(@PathParam("id") String id) throws IOException {
+		Uploads.getInstance().remove(id);
 	}
 	
 	@Path("/resource")
@@ -148,7 +406,11 @@ public class ResourceREST {
 		if (resolved == null) {
 			throw new RuntimeException("Can not find parent");
 		}
-		((ManageableContainer<?>) resolved).create(name, contentType);
+		Resource created = ((ManageableContainer<?>) resolved).create(name, contentType);
+		if (created != null) {
+			invalidate(created);
+		}
+		changed(path == null || path.equals("/") ? name : ChangeLog.normalize(path) + "/" + name, false);
 	}
 	
 	@Path("/resource/{path : .+}")
@@ -160,34 +422,531 @@ public class ResourceREST {
 			if (!(parent instanceof ManageableContainer)) {
 				throw new IOException("The parent of '" + path + "' is not manageable");
 			}
+			invalidate(resolved);
 			((ManageableContainer<?>) parent).delete(resolved.getName());
+			changed(path, true);
+		}
+	}
+
+	/**
+	 * Executes the operations in order, a failing operation does not stop the ones after it
+	 * Content that is put through a batch is limited to the size we would inline in a listing, anything larger fails with a 413
+	 * The batch is sent back with the result of every operation filled in
+	 */
+	@Path("/batch")
+	@POST
+	public Batch batch(InputStream content) throws IOException {
+		Batch batch;
+		try {
+			batch = TypeUtils.getAsBean(new XMLBinding((ComplexType) BeanResolver.getInstance().resolve(Batch.class), Charset.forName("UTF-8")).unmarshal(content, new Window[0]), Batch.class);
+		}
+		catch (ParseException e) {
+			throw new HTTPException(400, "Could not parse the batch: " + e.getMessage());
+		}
+		if (batch == null || batch.getOperations() == null) {
+			return new Batch();
+		}
+		for (Operation operation : batch.getOperations()) {
+			try {
+				execute(operation);
+				operation.setCode(200);
+			}
+			catch (HTTPException e) {
+				operation.setCode(e.getCode());
+				operation.setMessage(e.getMessage());
+			}
+			catch (Exception e) {
+				operation.setCode(500);
+				operation.setMessage(e.getMessage());
+			}
+			finally {
+				operation.setContent(null);
+			}
+		}
+		return batch;
+	}
+	
+	private void execute(Operation operation) throws IOException {
+		String path = ChangeLog.normalize(operation.getPath());
+		if (operation.getType() == null || (path.isEmpty() && !Operation.EXISTS.equals(operation.getType()))) {
+			throw new HTTPException(400, "An operation needs a type and a path");
+		}
+		switch (operation.getType()) {
+			case Operation.MKDIR:
+				String created = getFirstMissing(path);
+				ResourceUtils.mkdirs(root, path);
+				if (created != null) {
+					changed(created, false);
+				}
+			break;
+			case Operation.CREATE:
+				int index = path.lastIndexOf('/');
+				create(index < 0 ? "/" : path.substring(0, index), path.substring(index + 1), operation.getContentType());
+			break;
+			case Operation.PUT:
+				// the batch is held in memory as a whole, so it is only meant for small content
+				if (operation.getContent() != null && operation.getContent().length > maxPreloadSize) {
+					throw new HTTPException(413, "The content of a batch operation can not exceed " + maxPreloadSize + " bytes, use a regular or a multipart upload for: " + path);
+				}
+				write(path, new ByteArrayInputStream(operation.getContent() == null ? new byte[0] : operation.getContent()));
+			break;
+			case Operation.DELETE:
+				delete(path);
+			break;
+			case Operation.EXISTS:
+				operation.setExists(path.isEmpty() ? root != null : exists(path));
+			break;
+			default:
+				throw new HTTPException(400, "Unknown operation: " + operation.getType());
+		}
+	}
+
+	/**
+	 * Returns the content of a number of items in a single binary listing, the body contains one path per line
+	 * Paths that do not resolve to a readable item are left out, items that are too big to inline only get a hash so the client can fetch them separately
+	 */
+	@Path("/contents")
+	@POST
+	public HTTPResponse contents(InputStream content) throws IOException {
+		List<Resource> resources = new ArrayList<Resource>();
+		List<String> paths = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(content, Charset.forName("UTF-8")));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String path = ChangeLog.normalize(line.trim());
+			if (path.isEmpty()) {
+				continue;
+			}
+			Resource resolved = ResourceUtils.resolve(root, path);
+			if (resolved instanceof ReadableResource) {
+				resources.add(resolved);
+				paths.add(path);
+			}
+		}
+		Listing header = new Listing();
+		header.setPath("/");
+		header.setToken(ChangeLog.getInstance(root).getToken());
+		return new DefaultHTTPResponse(200, "OK", new PlainMimeContentPart(null, IOUtils.wrap(new ListingStream(this, header, resources, paths, "true")),
+			new MimeHeader("Transfer-Encoding", "chunked"),
+			new MimeHeader("Content-Type", ListingCodec.CONTENT_TYPE)
+		));
+	}
+
+	/**
+	 * Copies a resource to the given path on the server, folders are copied recursively and missing parents of the target are created
+	 */
+	@Path("/copy/{path : .+}")
+	@POST
+	public Entry copy(@PathParam("path") String path, @QueryParam("to") String to) throws IOException {
+		return transfer(path, to, false);
+	}
+	
+	/**
+	 * Moves a resource to the given path on the server, this is a rename where the backend allows it and a copy and delete otherwise
+	 */
+	@Path("/move/{path : .+}")
+	@POST
+	public Entry move(@PathParam("path") String path, @QueryParam("to") String to) throws IOException {
+		return transfer(path, to, true);
+	}
+	
+	private Entry transfer(String from, String to, boolean move) throws IOException {
+		from = ChangeLog.normalize(from);
+		to = ChangeLog.normalize(to);
+		if (from.isEmpty() || to.isEmpty()) {
+			throw new HTTPException(400, "Both a source and a target are required");
+		}
+		else if (ChangeLog.isWithin(to, from)) {
+			throw new HTTPException(400, "Can not copy or move '" + from + "' into itself");
+		}
+		Resource source = ResourceUtils.resolve(root, from);
+		if (source == null) {
+			throw new HTTPException(404, "Could not find: " + from);
+		}
+		else if (ResourceUtils.resolve(root, to) != null) {
+			throw new HTTPException(409, "The target already exists: " + to);
+		}
+		int index = to.lastIndexOf('/');
+		String name = to.substring(index + 1);
+		Resource parent = index < 0 ? root : ResourceUtils.resolve(root, to.substring(0, index));
+		if (parent == null) {
+			String created = getFirstMissing(to.substring(0, index));
+			parent = ResourceUtils.mkdirs(root, to.substring(0, index));
+			if (created != null) {
+				changed(created, false);
+			}
+		}
+		if (!(parent instanceof ManageableContainer)) {
+			throw new HTTPException(400, "The parent of the target is not manageable: " + to);
+		}
+		if (move && rename(source, (ResourceContainer<?>) parent, name)) {
+			invalidate(source);
+			changed(from, true);
+		}
+		else {
+			copy(source, (ManageableContainer<?>) parent, name);
+			if (move) {
+				delete(from);
+			}
+		}
+		changed(to, false);
+		Resource target = ((ResourceContainer<?>) parent).getChild(name);
+		if (target == null) {
+			throw new HTTPException(500, "Could not find the target after the " + (move ? "move" : "copy") + ": " + to);
+		}
+		return toEntry(target, to, null);
+	}
+	
+	/**
+	 * Renames on the file system if both ends are files, returns false if that is not possible so we can fall back to a copy
+	 */
+	private boolean rename(Resource source, ResourceContainer<?> parent, String name) throws IOException {
+		URI from = ResourceUtils.getURI(source);
+		URI to = ResourceUtils.getURI(parent);
+		if (!"file".equals(from.getScheme()) || !"file".equals(to.getScheme())) {
+			return false;
+		}
+		try {
+			Files.move(Paths.get(from), Paths.get(to).resolve(name), StandardCopyOption.ATOMIC_MOVE);
+		}
+		// e.g. a different file system
+		catch (IOException e) {
+			return false;
+		}
+		// the backend may have cached the children of both folders
+		if (source.getParent() instanceof CacheableResource) {
+			((CacheableResource) source.getParent()).resetCache();
+		}
+		if (parent instanceof CacheableResource) {
+			((CacheableResource) parent).resetCache();
+		}
+		return true;
+	}
+	
+	private static void copy(Resource source, ManageableContainer<?> target, String name) throws IOException {
+		if (source instanceof ResourceContainer) {
+			Resource created = target.create(name, Resource.CONTENT_TYPE_DIRECTORY);
+			if (!(created instanceof ManageableContainer)) {
+				throw new IOException("Could not create folder: " + name);
+			}
+			for (Resource child : (ResourceContainer<?>) source) {
+				copy(child, (ManageableContainer<?>) created, child.getName());
+			}
+		}
+		else if (source instanceof ReadableResource) {
+			Resource created = target.create(name, source.getContentType() == null ? "application/octet-stream" : source.getContentType());
+			if (!(created instanceof WritableResource)) {
+				throw new IOException("Could not create file: " + name);
+			}
+			ReadableContainer<ByteBuffer> readable = ((ReadableResource) source).getReadable();
+			try {
+				WritableContainer<ByteBuffer> writable = ((WritableResource) created).getWritable();
+				try {
+					IOUtils.copyBytes(readable, writable);
+				}
+				finally {
+					writable.close();
+				}
+			}
+			finally {
+				readable.close();
+			}
+		}
+	}
+	
+	@Path("/archive")
+	@GET
+	public HTTPResponse exportRoot() throws IOException {
+		return export("/");
+	}
+	
+	/**
+	 * Sends the subtree as a zip that is produced while it is being sent
+	 */
+	@Path("/archive/{path : .*}")
+	@GET
+	public HTTPResponse export(@PathParam("path") String path) throws IOException {
+		ResourceContainer<?> container = getListable(normalizeListPath(path));
+		return new DefaultHTTPResponse(200, "OK", new PlainMimeContentPart(null, IOUtils.wrap(new ArchiveStream(container)),
+			new MimeHeader("Transfer-Encoding", "chunked"),
+			new MimeHeader("Content-Type", ArchiveStream.CONTENT_TYPE)
+		));
+	}
+	
+	@Path("/archive")
+	@POST
+	public void importIntoRoot(InputStream content) throws IOException {
+		importArchive("/", content);
+	}
+	
+	/**
+	 * Extracts a zip into the subtree as it comes in, the folder is created if it does not exist yet
+	 */
+	@Path("/archive/{path : .*}")
+	@POST
+	public void importArchive(@PathParam("path") String path, InputStream content) throws IOException {
+		path = ChangeLog.normalize(path);
+		Resource target = path.isEmpty() ? root : ResourceUtils.resolve(root, path);
+		if (target == null) {
+			String created = getFirstMissing(path);
+			target = ResourceUtils.mkdirs(root, path);
+			if (created != null) {
+				changed(created, false);
+			}
+		}
+		if (!(target instanceof ManageableContainer)) {
+			throw new HTTPException(400, "The target is not a manageable folder: " + path);
+		}
+		Map<String, Resource> extracted = new LinkedHashMap<String, Resource>();
+		try {
+			ArchiveStream.extract(content, (ManageableContainer<?>) target, extracted);
+		}
+		finally {
+			// whatever made it in is a change, even if the archive was cut off
+			// we record it once for the import root, an entry per extracted file would flood the journal and repeat the cache invalidation for every one of them
+			if (!extracted.isEmpty()) {
+				replaced(path);
+			}
 		}
 	}
 
 	@Path("/list")
 	@GET
-	public Listing listRoot(@QueryParam("recursive") String recursive, @QueryParam("full") String full) throws IOException {
-		return list("/", recursive, full);
+	public Object listRoot(@QueryParam("recursive") String recursive, @QueryParam("depth") Integer depth, @QueryParam("full") String full, @QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor, @HeaderParam("If-None-Match") String ifNoneMatch, @HeaderParam("Accept") String accept) throws IOException {
+		return list("/", recursive, depth, full, limit, cursor, ifNoneMatch, accept);
 	}
 
 	@Path("/list/")
 	@GET
-	public Listing listRoot2(@QueryParam("recursive") String recursive, @QueryParam("full") String full) throws IOException {
-		return list("/", recursive, full);
+	public Object listRoot2(@QueryParam("recursive") String recursive, @QueryParam("depth") Integer depth, @QueryParam("full") String full, @QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor, @HeaderParam("If-None-Match") String ifNoneMatch, @HeaderParam("Accept") String accept) throws IOException {
+		return list("/", recursive, depth, full, limit, cursor, ifNoneMatch, accept);
 	}
 	
+	// a watch occupies a thread for its duration, so we keep it bounded
+	private static final long DEFAULT_WATCH_TIMEOUT = 30000, MAX_WATCH_TIMEOUT = 120000, WATCH_RETRY_AFTER = 5000;
+	
+	// the amount of watches that can wait at the same time, set with the system property "resource.rest.watchers"
+	private static final Semaphore watchers = new Semaphore(Integer.parseInt(System.getProperty("resource.rest.watchers", "64")));
+	
 	// let's do this with a third of a meg since we now have a client side caching mechanism
 	private Long maxPreloadSize = 1024l*1024 / 3;
 	
+	/**
+	 * The listing carries a version that is a digest of its content, a client can send that version back in the If-None-Match header to get a 304 if nothing changed
+	 * Listings are cached until something changes within them or they expire, a cached listing is served (or revalidated) without touching the backend
+	 * Concurrent requests for the same listing share the work
+	 * If the client accepts the binary listing format, a listing that is too large to cache is streamed while the tree is walked instead of building it in memory
+	 * Very wide folders can be paged by passing a limit, the listing then contains a cursor to request the next page with
+	 * The depth limits how many levels are included, it takes precedence over recursive (which means all levels), by default only one level is listed
+	 */
 	@Path("/list/{path : .*}")
 	@GET
-	public Listing list(@PathParam("path") String path, @QueryParam("recursive") String recursive, @QueryParam("full") String full) throws IOException {
+	public Object list(@PathParam("path") String path, @QueryParam("recursive") String recursive, @QueryParam("depth") Integer depth, @QueryParam("full") String full, @QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor, @HeaderParam("If-None-Match") String ifNoneMatch, @HeaderParam("Accept") String accept) throws IOException {
+		if (limit != null && limit <= 0) {
+			throw new HTTPException(400, "The limit must be positive");
+		}
+		if (depth != null && depth <= 0) {
+			throw new HTTPException(400, "The depth must be positive");
+		}
+		int levels = depth != null ? depth : ("true".equals(recursive) ? Integer.MAX_VALUE : 1);
+		path = normalizeListPath(path);
+		String key = path + ";depth=" + levels + ";full=" + full + ";limit=" + limit + ";cursor=" + cursor;
+		ListingCache cache = ListingCache.getInstance(root);
+		// a listing that is known to be too large to cache is streamed right away, without waiting for others or looking at the cache
+		if (cache.isOversized(key) && accepts(accept, ListingCodec.CONTENT_TYPE)) {
+			return new DefaultHTTPResponse(200, "OK", new PlainMimeContentPart(null, IOUtils.wrap(newListingStream(path, levels, full, limit, cursor, ChangeLog.getInstance(root).getToken())),
+				new MimeHeader("Transfer-Encoding", "chunked"),
+				new MimeHeader("Content-Type", ListingCodec.CONTENT_TYPE)
+			));
+		}
+		// we rely on our own invalidation and the max age of the cache, checking a cached listing against the backend means walking it so that is optional
+		String fingerprint = cache.isValidating() ? getFingerprint(path, levels, full, "limit=" + limit + ";cursor=" + cursor) : null;
+		ListingCache.Cached cached = cache.get(key, fingerprint);
+		String version;
+		byte [] content;
+		if (cached != null) {
+			version = cached.getVersion();
+			content = cached.getContent();
+		}
+		else {
+			// we have to build it and either put it in the cache or abandon the attempt, the tree is only walked once
+			boolean streaming = false;
+			try {
+				// take the token before we start so we don't miss changes that happen during the build
+				String token = ChangeLog.getInstance(root).getToken();
+				if (accepts(accept, ListingCodec.CONTENT_TYPE)) {
+					ListingStream stream = newListingStream(path, levels, full, limit, cursor, token);
+					ByteArrayOutputStream output = new ByteArrayOutputStream();
+					try {
+						byte [] buffer = new byte[8192];
+						int read;
+						while (output.size() <= cache.getMaxEntrySize() && (read = stream.read(buffer)) >= 0) {
+							output.write(buffer, 0, read);
+						}
+					}
+					catch (IOException | RuntimeException e) {
+						stream.close();
+						throw e;
+					}
+					if (output.size() > cache.getMaxEntrySize()) {
+						// too large to cache, send what we have and continue walking as the client reads, such a listing has no version
+						cache.abandon(key, true);
+						streaming = true;
+						return new DefaultHTTPResponse(200, "OK", new PlainMimeContentPart(null, IOUtils.wrap(new SequenceInputStream(new ByteArrayInputStream(output.toByteArray()), stream)),
+							new MimeHeader("Transfer-Encoding", "chunked"),
+							new MimeHeader("Content-Type", ListingCodec.CONTENT_TYPE)
+						));
+					}
+					stream.close();
+					content = output.toByteArray();
+				}
+				else {
+					Listing listing = buildListing(path, levels, full, limit, cursor);
+					listing.setToken(token);
+					ByteArrayOutputStream output = new ByteArrayOutputStream();
+					ListingCodec.write(listing, output);
+					content = output.toByteArray();
+				}
+				// the version is calculated from what we built, so it only changes when the listing does
+				version = getVersion(content);
+				content = ListingCodec.setVersion(content, version);
+				if (content.length <= cache.getMaxEntrySize()) {
+					cache.put(key, path, version, fingerprint, content);
+				}
+				else {
+					cache.abandon(key, true);
+				}
+			}
+			catch (IOException | RuntimeException e) {
+				cache.abandon(key);
+				throw e;
+			}
+			finally {
+				// persist any hashes we calculated along the way, a stream does this once it is done
+				if ("true".equals(full) && !streaming) {
+					HashIndex.getInstance().save();
+				}
+			}
+		}
+		if (ifNoneMatch != null && matches(ifNoneMatch, version)) {
+			return new DefaultHTTPResponse(304, "Not Modified", new PlainMimeEmptyPart(null,
+				new MimeHeader("Content-Length", "0"),
+				new MimeHeader("ETag", version)
+			));
+		}
+		if (accepts(accept, ListingCodec.CONTENT_TYPE)) {
+			return new DefaultHTTPResponse(200, "OK", new PlainMimeContentPart(null, IOUtils.wrap(content, true),
+				new MimeHeader("Content-Length", Integer.toString(content.length)),
+				new MimeHeader("Content-Type", ListingCodec.CONTENT_TYPE)
+			));
+		}
+		return ListingCodec.read(new ByteArrayInputStream(content));
+	}
+	
+	private ListingStream newListingStream(String path, int depth, String full, Integer limit, String cursor, String token) throws IOException {
+		ResourceContainer<?> container = getListable(path);
+		Listing header = new Listing();
+		header.setPath(path);
+		header.setManageable(container instanceof ManageableContainer);
+		header.setToken(token);
+		List<Resource> children = getPage(container, header, limit, cursor);
+		return new ListingStream(this, header, children.iterator(), depth, full);
+	}
+	
+	/**
+	 * Whether the accept header explicitly lists the given content type
+	 */
+	private static boolean accepts(String accept, String contentType) {
+		if (accept == null) {
+			return false;
+		}
+		for (String part : accept.split(",")) {
+			if (part.split(";")[0].trim().equalsIgnoreCase(contentType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * The version of a listing is a digest of its binary form, apart from the version and the token in the header
+	 */
+	private static String getVersion(byte [] listing) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			int offset = ListingCodec.getBodyOffset(listing);
+			// the flags of the listing itself
+			digest.update(listing, ListingCodec.MAGIC.length, 1);
+			digest.update(listing, offset, listing.length - offset);
+			return "\"" + SecurityUtils.encodeDigest(digest.digest()) + "\"";
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	/**
+	 * A digest of the metadata of everything the listing would contain, this is used to check a cached listing against the backend
+	 * It walks the tree down to the requested depth, so it is only used if the cache is configured to validate
+	 */
+	private String getFingerprint(String path, int depth, String full, String variant) throws IOException {
+		if (path != null && path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		Resource resolved = path == null || path.isEmpty() || path.equals("/") ? root : ResourceUtils.resolve(root, path);
+		if (!(resolved instanceof ResourceContainer)) {
+			return null;
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			digest.update(("depth=" + depth + ";full=" + full + ";" + variant + ";manageable=" + (resolved instanceof ManageableContainer) + "\n").getBytes("UTF-8"));
+			updateVersion(digest, (ResourceContainer<?>) resolved, "", depth);
+			return "\"" + SecurityUtils.encodeDigest(digest.digest()) + "\"";
+		}
+		catch (NoSuchAlgorithmException e) {
+			// impossible?
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	private void updateVersion(MessageDigest digest, ResourceContainer<?> container, String path, int depth) throws IOException {
+		for (Resource child : container) {
+			if (child.getName().startsWith(".")) {
+				continue;
+			}
+			StringBuilder builder = new StringBuilder();
+			builder.append(path).append("/").append(child.getName())
+				.append(";").append(child.getContentType())
+				.append(";").append(child instanceof WritableResource || child instanceof ManageableContainer);
+			if (child instanceof FiniteResource) {
+				builder.append(";").append(((FiniteResource) child).getSize());
+			}
+			if (child instanceof TimestampedResource && ((TimestampedResource) child).getLastModified() != null) {
+				builder.append(";").append(((TimestampedResource) child).getLastModified().getTime());
+			}
+			digest.update((builder.toString() + "\n").getBytes("UTF-8"));
+			if (depth > 1 && child instanceof ResourceContainer) {
+				updateVersion(digest, (ResourceContainer<?>) child, path + "/" + child.getName(), depth - 1);
+			}
+		}
+	}
+	
+	private static String normalizeListPath(String path) {
 		if (path != null && path.startsWith("/")) {
 			path = path.substring(1);
 		}
 		if (path == null || path.isEmpty()) {
 			path = "/";
 		}
+		return path;
+	}
+	
+	static String getChildPath(String path, String name) {
+		return path + (path.equals("/") ? "" : "/") + name;
+	}
+	
+	private ResourceContainer<?> getListable(String path) throws IOException {
 		Resource resolved = path.equals("/") ? root : ResourceUtils.resolve(root, path);
 		if (resolved == null) {
 			throw new HTTPException(404, "The resource does not exist: " + path);
@@ -196,53 +955,278 @@ public class ResourceREST {
 		else if (!(resolved instanceof ResourceContainer)) {
 			throw new HTTPException(400, "The requested resource is not listable: " + path);
 		}
-		Listing listing = new Listing();
-		listing.setPath(path);
-		listing.setManageable(resolved instanceof ManageableContainer);
-		for (Resource child : (ResourceContainer<?>) resolved) {
+		return (ResourceContainer<?>) resolved;
+	}
+	
+	/**
+	 * Returns the visible children of the container, if a limit or cursor is given they are sorted by name so the pages are stable
+	 * If there are more children than the limit, the cursor for the next page is set on the listing
+	 */
+	private List<Resource> getPage(ResourceContainer<?> container, Listing listing, Integer limit, String cursor) {
+		List<Resource> children = new ArrayList<Resource>();
+		for (Resource child : container) {
 			if (child.getName().startsWith(".")) {
 				continue;
 			}
-			Entry entry = new Entry();
-			entry.setPath(path + (path.equals("/") ? "" : "/") + child.getName());
-			entry.setContentType(child.getContentType() == null ? "application/octet-stream" : child.getContentType());
-			entry.setName(child.getName());
-			entry.setWritable(child instanceof WritableResource || child instanceof ManageableContainer);
-			if (child instanceof FiniteResource) {
-				entry.setSize(((FiniteResource) child).getSize());
-			}
-			if (child instanceof TimestampedResource) {
-				entry.setLastModified(((TimestampedResource) child).getLastModified());
+			if (cursor == null || child.getName().compareTo(cursor) > 0) {
+				children.add(child);
 			}
-			if ("true".equals(full) && child instanceof ReadableResource && entry.getSize() != null && entry.getSize() < maxPreloadSize) {
-				ReadableContainer<ByteBuffer> readable = ((ReadableResource) child).getReadable();
-				try {
-					entry.setContent(IOUtils.toBytes(readable));
-				}
-				finally {
-					readable.close();
+		}
+		if (limit != null || cursor != null) {
+			Collections.sort(children, new Comparator<Resource>() {
+				@Override
+				public int compare(Resource o1, Resource o2) {
+					return o1.getName().compareTo(o2.getName());
 				}
+			});
+		}
+		if (limit != null && children.size() > limit) {
+			children = children.subList(0, limit);
+			listing.setNext(children.get(limit - 1).getName());
+		}
+		return children;
+	}
+	
+	private Listing buildListing(String path, int depth, String full, Integer limit, String cursor) throws IOException {
+		path = normalizeListPath(path);
+		ResourceContainer<?> container = getListable(path);
+		Listing listing = new Listing();
+		listing.setPath(path);
+		listing.setManageable(container instanceof ManageableContainer);
+		List<Resource> children = getPage(container, listing, limit, cursor);
+		// only worth it if we have to look at more than the entries themselves
+		ForkJoinPool pool = depth > 1 || "true".equals(full) ? ListingWalker.getPool() : null;
+		if (pool != null) {
+			return ListingWalker.walk(pool, this, listing, children, depth, full);
+		}
+		for (Resource child : children) {
+			Entry entry = toEntry(child, getChildPath(path, child.getName()), full);
+			if (depth > 1 && child instanceof ResourceContainer) {
+				entry.setChildren(buildListing(entry.getPath(), depth - 1, full, null, null));
 			}
-			// if too big to include, add a hash so we can cache it at the other end
-			else if ("true".equals(full) && child instanceof ReadableResource && entry.getSize() != null && entry.getSize() >= maxPreloadSize) {
-				ReadableContainer<ByteBuffer> readable = ((ReadableResource) child).getReadable();
-				try {
-					byte[] digest = SecurityUtils.digest(IOUtils.toInputStream(readable), DigestAlgorithm.MD5);
-					entry.setHash(SecurityUtils.encodeDigest(digest));
-				}
-				catch (NoSuchAlgorithmException e) {
-					// impossible?
-					e.printStackTrace();
+			listing.getEntries().add(entry);
+		}
+		return listing;
+	}
+	
+	Entry toEntry(Resource child, String path, String full) throws IOException {
+		Entry entry = new Entry();
+		entry.setPath(path);
+		entry.setContentType(child.getContentType() == null ? "application/octet-stream" : child.getContentType());
+		entry.setName(child.getName());
+		entry.setWritable(child instanceof WritableResource || child instanceof ManageableContainer);
+		if (child instanceof FiniteResource) {
+			entry.setSize(((FiniteResource) child).getSize());
+		}
+		if (child instanceof TimestampedResource) {
+			entry.setLastModified(((TimestampedResource) child).getLastModified());
+		}
+		if ("true".equals(full) && child instanceof ReadableResource && entry.getSize() != null && entry.getSize() < maxPreloadSize) {
+			ReadableContainer<ByteBuffer> readable = ((ReadableResource) child).getReadable();
+			try {
+				entry.setContent(IOUtils.toBytes(readable));
+			}
+			finally {
+				readable.close();
+			}
+		}
+		// if too big to include, add a hash so we can cache it at the other end
+		else if ("true".equals(full) && child instanceof ReadableResource && entry.getSize() != null && entry.getSize() >= maxPreloadSize) {
+			entry.setHash(hash(child, entry.getSize(), entry.getLastModified()));
+		}
+		return entry;
+	}
+	
+	@Path("/changes")
+	@GET
+	public Changes changesInRoot(@QueryParam("since") String since, @QueryParam("full") String full) throws IOException {
+		return changes("/", since, full);
+	}
+	
+	/**
+	 * Returns the entries that were added, modified or deleted in the given subtree since the token
+	 * Only changes made through this service are tracked, if the token can not be answered the client is told to reload
+	 */
+	@Path("/changes/{path : .*}")
+	@GET
+	public Changes changes(@PathParam("path") String path, @QueryParam("since") String since, @QueryParam("full") String full) throws IOException {
+		ChangeLog log = ChangeLog.getInstance(root);
+		Changes changes = new Changes();
+		// take the token first, anything that happens after will be in the next delta
+		changes.setToken(log.getToken());
+		Map<String, Boolean> changed = log.getChanges(since, path);
+		if (changed == null) {
+			changes.setReset(true);
+			return changes;
+		}
+		try {
+			for (Map.Entry<String, Boolean> change : changed.entrySet()) {
+				Resource resolved = change.getValue() ? null : ResourceUtils.resolve(root, change.getKey());
+				// it may have been deleted outside of this service
+				if (resolved == null) {
+					changes.getDeleted().add(change.getKey());
 				}
-				finally {
-					readable.close();
+				else {
+					changes.getEntries().add(toEntry(resolved, change.getKey(), full));
 				}
 			}
-			if ("true".equals(recursive) && child instanceof ResourceContainer) {
-				entry.setChildren(list(entry.getPath(), recursive, full));
+		}
+		finally {
+			if ("true".equals(full)) {
+				HashIndex.getInstance().save();
 			}
-			listing.getEntries().add(entry);
 		}
-		return listing;
+		return changes;
+	}
+	
+	@Path("/watch")
+	@GET
+	public Changes watchRoot(@QueryParam("since") String since, @QueryParam("full") String full, @QueryParam("timeout") Long timeout) throws IOException {
+		return watch("/", since, full, timeout);
+	}
+	
+	/**
+	 * A long poll for changes in the given subtree: the request is only answered once something changes or the timeout expires
+	 * The result is the same as for the changes endpoint, if nothing changed the token remains the same
+	 * If too many watches are already waiting, we answer immediately and tell the client when to poll again
+	 */
+	@Path("/watch/{path : .*}")
+	@GET
+	public Changes watch(@PathParam("path") String path, @QueryParam("since") String since, @QueryParam("full") String full, @QueryParam("timeout") Long timeout) throws IOException {
+		if (!watchers.tryAcquire()) {
+			Changes changes = changes(path, since, full);
+			if (!changes.isReset() && changes.getEntries().isEmpty() && changes.getDeleted().isEmpty()) {
+				changes.setRetryAfter(WATCH_RETRY_AFTER);
+			}
+			return changes;
+		}
+		try {
+			ChangeLog.getInstance(root).await(since, path, timeout == null || timeout <= 0 ? DEFAULT_WATCH_TIMEOUT : Math.min(timeout, MAX_WATCH_TIMEOUT));
+		}
+		catch (InterruptedException e) {
+			throw new HTTPException(503, "Interrupted while waiting for changes");
+		}
+		finally {
+			watchers.release();
+		}
+		return changes(path, since, full);
+	}
+	
+	/**
+	 * Records the change for clients that follow along and drops the cached listings it affects
+	 */
+	private void changed(String path, boolean deleted) {
+		ChangeLog.getInstance(root).record(path, deleted);
+		dropCached(path);
+	}
+	
+	/**
+	 * Registers that the whole subtree at the path changed, clients following it will reload it
+	 */
+	private void replaced(String path) {
+		ChangeLog.getInstance(root).recordSubtree(path);
+		dropCached(path);
+	}
+	
+	private void dropCached(String path) {
+		ListingCache.getInstance(root).invalidate(path);
+		// drop the hashes of whatever lived at the path and beneath it, also when it was deleted or moved away
+		URI uri = ResourceUtils.getURI(root);
+		for (String part : ChangeLog.normalize(path).split("/")) {
+			if (!part.isEmpty()) {
+				uri = URIUtils.getChild(uri, part);
+			}
+		}
+		HashIndex.getInstance().invalidate(uri.toString());
+	}
+	
+	private String getFirstMissing(String path) throws IOException {
+		String current = null;
+		for (String part : ChangeLog.normalize(path).split("/")) {
+			current = current == null ? part : current + "/" + part;
+			if (ResourceUtils.resolve(root, current) == null) {
+				return current;
+			}
+		}
+		return null;
+	}
+	
+	private String hash(Resource resource, long size, Date lastModified) throws IOException {
+		HashIndex index = HashIndex.getInstance();
+		String key = ResourceUtils.getURI(resource).toString();
+		String hash = index.get(key, size, lastModified);
+		if (hash == null) {
+			ReadableContainer<ByteBuffer> readable = ((ReadableResource) resource).getReadable();
+			try {
+				byte[] digest = SecurityUtils.digest(IOUtils.toInputStream(readable), DigestAlgorithm.MD5);
+				hash = SecurityUtils.encodeDigest(digest);
+				index.put(key, size, lastModified, hash);
+			}
+			catch (NoSuchAlgorithmException e) {
+				// impossible?
+				e.printStackTrace();
+			}
+			finally {
+				readable.close();
+			}
+		}
+		return hash;
+	}
+	
+	/**
+	 * Prefers the content hash if we already know it, otherwise the size and timestamp are used as a weak validator
+	 */
+	private String getETag(Resource resource, long size, Date lastModified) {
+		if (lastModified == null) {
+			return null;
+		}
+		String hash = HashIndex.getInstance().get(ResourceUtils.getURI(resource).toString(), size, lastModified);
+		return hash == null ? "W/\"" + lastModified.getTime() + "-" + size + "\"" : "\"" + hash + "\"";
+	}
+	
+	static boolean isNotModified(String etag, Date lastModified, String ifNoneMatch, String ifModifiedSince) {
+		// if both are present, the etag takes precedence
+		if (ifNoneMatch != null) {
+			return etag != null && matches(ifNoneMatch, etag);
+		}
+		else if (ifModifiedSince != null && lastModified != null) {
+			try {
+				// the http date has second precision
+				return lastModified.getTime() / 1000 <= parseDate(ifModifiedSince).getTime() / 1000;
+			}
+			catch (ParseException e) {
+				return false;
+			}
+		}
+		return false;
+	}
+	
+	private static boolean matches(String ifNoneMatch, String etag) {
+		String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals("*") || candidate.equals(etag) || (candidate.startsWith("W/") ? candidate.substring(2) : candidate).equals(opaque)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static String formatDate(Date date) {
+		return getDateFormatter().format(date);
+	}
+	
+	private static Date parseDate(String date) throws ParseException {
+		return getDateFormatter().parse(date.trim());
+	}
+	
+	private static SimpleDateFormat getDateFormatter() {
+		SimpleDateFormat formatter = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		formatter.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return formatter;
+	}
+	
+	private void invalidate(Resource resource) {
+		HashIndex.getInstance().invalidate(ResourceUtils.getURI(resource).toString());
 	}
 }
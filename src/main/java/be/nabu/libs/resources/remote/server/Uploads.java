@@ -0,0 +1,219 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import be.nabu.libs.http.HTTPException;
+import be.nabu.utils.io.IOUtils;
+
+/**
+ * Stages the parts of multipart uploads on the local file system until they are committed
+ * The location can be set with the system property "resource.rest.uploads"
+ * Uploads that have not been touched for "resource.rest.uploads.maxAge" milliseconds (default a day) are considered abandoned and are swept when new ones start
+ */
+public class Uploads {
+
+	private static volatile Uploads instance;
+
+	public static Uploads getInstance() {
+		if (instance == null) {
+			synchronized(Uploads.class) {
+				if (instance == null) {
+					String location = System.getProperty("resource.rest.uploads");
+					String maxAge = System.getProperty("resource.rest.uploads.maxAge");
+					instance = new Uploads(location == null ? new File(System.getProperty("java.io.tmpdir"), "resource-rest-uploads") : new File(location), maxAge == null ? 1000l*60*60*24 : Long.parseLong(maxAge));
+				}
+			}
+		}
+		return instance;
+	}
+
+	private File folder;
+	private long maxAge;
+	private volatile long lastSweep;
+
+	public Uploads(File folder) {
+		this(folder, 1000l*60*60*24);
+	}
+
+	public Uploads(File folder, long maxAge) {
+		this.folder = folder;
+		this.maxAge = maxAge;
+	}
+
+	public String start(String path) throws IOException {
+		sweep();
+		String id = UUID.randomUUID().toString().replace("-", "");
+		File upload = new File(folder, id);
+		if (!upload.mkdirs()) {
+			throw new IOException("Could not create staging folder for upload: " + upload);
+		}
+		OutputStream output = new FileOutputStream(new File(upload, "target"));
+		try {
+			output.write(path.getBytes(Charset.forName("UTF-8")));
+		}
+		finally {
+			output.close();
+		}
+		return id;
+	}
+
+	public String getPath(String id) throws IOException {
+		InputStream input = new FileInputStream(new File(getFolder(id), "target"));
+		try {
+			return new String(IOUtils.toBytes(IOUtils.wrap(input)), Charset.forName("UTF-8"));
+		}
+		finally {
+			input.close();
+		}
+	}
+
+	public void putPart(String id, int part, InputStream content) throws IOException {
+		if (part < 0) {
+			throw new HTTPException(400, "Invalid part number: " + part);
+		}
+		File upload = getFolder(id);
+		// only parts that were fully received are visible
+		File temporary = new File(upload, part + ".tmp");
+		OutputStream output = new BufferedOutputStream(new FileOutputStream(temporary));
+		try {
+			if (content != null) {
+				IOUtils.copyBytes(IOUtils.wrap(content), IOUtils.wrap(output));
+			}
+		}
+		finally {
+			output.close();
+		}
+		File target = new File(upload, part + ".part");
+		target.delete();
+		if (!temporary.renameTo(target)) {
+			temporary.delete();
+			throw new IOException("Could not store part " + part + " of upload: " + id);
+		}
+	}
+
+	public List<Integer> getParts(String id) throws IOException {
+		List<Integer> parts = new ArrayList<Integer>();
+		File [] files = getFolder(id).listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(".part")) {
+					parts.add(Integer.parseInt(file.getName().substring(0, file.getName().length() - ".part".length())));
+				}
+			}
+		}
+		Collections.sort(parts);
+		return parts;
+	}
+
+	/**
+	 * Opens the concatenation of the parts 0 to amount - 1, all of them must be present
+	 */
+	public InputStream open(String id, int amount) throws IOException {
+		final List<File> files = new ArrayList<File>();
+		File upload = getFolder(id);
+		for (int i = 0; i < amount; i++) {
+			File file = new File(upload, i + ".part");
+			if (!file.isFile()) {
+				throw new HTTPException(409, "Missing part " + i + " for upload: " + id);
+			}
+			files.add(file);
+		}
+		final Iterator<File> iterator = files.iterator();
+		return new SequenceInputStream(new Enumeration<InputStream>() {
+			@Override
+			public boolean hasMoreElements() {
+				return iterator.hasNext();
+			}
+			@Override
+			public InputStream nextElement() {
+				try {
+					return new BufferedInputStream(new FileInputStream(iterator.next()));
+				}
+				catch (IOException e) {
+					throw new NoSuchElementException(e.getMessage());
+				}
+			}
+		});
+	}
+
+	public void remove(String id) throws IOException {
+		File upload = getFolder(id);
+		File [] files = upload.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		upload.delete();
+	}
+
+	/**
+	 * Removes the uploads that were abandoned, a folder is touched whenever a part is added to it
+	 */
+	private void sweep() {
+		long now = System.currentTimeMillis();
+		// no need to check every single time
+		if (now - lastSweep < Math.min(maxAge, 1000l*60)) {
+			return;
+		}
+		lastSweep = now;
+		File [] uploads = folder.listFiles();
+		if (uploads != null) {
+			for (File upload : uploads) {
+				if (upload.isDirectory() && upload.getName().matches("[a-f0-9]+") && upload.lastModified() < now - maxAge) {
+					try {
+						remove(upload.getName());
+					}
+					catch (Exception e) {
+						// it may have been committed or aborted in the meantime
+					}
+				}
+			}
+		}
+	}
+
+	private File getFolder(String id) throws HTTPException {
+		// the id is used as a folder name, make sure it can't point elsewhere
+		if (id == null || !id.matches("[a-f0-9]+")) {
+			throw new HTTPException(400, "Invalid upload id: " + id);
+		}
+		File upload = new File(folder, id);
+		if (!upload.isDirectory()) {
+			throw new HTTPException(404, "Unknown upload: " + id);
+		}
+		return upload;
+	}
+}
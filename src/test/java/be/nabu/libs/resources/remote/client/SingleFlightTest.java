@@ -0,0 +1,218 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.client;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class SingleFlightTest extends TestCase {
+
+	private ExecutorService executor = Executors.newCachedThreadPool();
+
+	@Override
+	protected void tearDown() {
+		executor.shutdownNow();
+	}
+
+	public void testShared() throws Exception {
+		final SingleFlight<String> flight = new SingleFlight<String>();
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+		Future<String> owner = executor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return flight.execute(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						calls.incrementAndGet();
+						started.countDown();
+						release.await();
+						return "result";
+					}
+				});
+			}
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		Future<String> waiter = executor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return flight.execute(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						calls.incrementAndGet();
+						return "other";
+					}
+				});
+			}
+		});
+		// give the waiter the time to join the running execution
+		Thread.sleep(200);
+		release.countDown();
+		assertEquals("result", owner.get(10, TimeUnit.SECONDS));
+		assertEquals("result", waiter.get(10, TimeUnit.SECONDS));
+		assertEquals(1, calls.get());
+	}
+
+	public void testFailureIsShared() throws Exception {
+		final SingleFlight<String> flight = new SingleFlight<String>();
+		final CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+		Future<String> owner = executor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return flight.execute(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						started.countDown();
+						release.await();
+						throw new IOException("failed");
+					}
+				});
+			}
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		Future<String> waiter = executor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return flight.execute(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return "other";
+					}
+				});
+			}
+		});
+		Thread.sleep(200);
+		release.countDown();
+		assertFailed(owner);
+		assertFailed(waiter);
+	}
+
+	public void testErrorIsShared() throws Exception {
+		final SingleFlight<String> flight = new SingleFlight<String>();
+		final CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+		Future<String> owner = executor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return flight.execute(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						started.countDown();
+						release.await();
+						throw new StackOverflowError("fatal");
+					}
+				});
+			}
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		Future<String> waiter = executor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return flight.execute(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return "other";
+					}
+				});
+			}
+		});
+		Thread.sleep(200);
+		release.countDown();
+		// the waiter must not hang on an execution that died with an error
+		for (Future<String> future : Arrays.asList(owner, waiter)) {
+			try {
+				future.get(10, TimeUnit.SECONDS);
+				fail("Expected the execution to fail");
+			}
+			catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof StackOverflowError);
+			}
+		}
+	}
+
+	public void testRunsAgainAfterCompletion() throws IOException {
+		SingleFlight<Integer> flight = new SingleFlight<Integer>();
+		final AtomicInteger calls = new AtomicInteger();
+		Callable<Integer> action = new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return calls.incrementAndGet();
+			}
+		};
+		assertEquals(Integer.valueOf(1), flight.execute(action));
+		assertEquals(Integer.valueOf(2), flight.execute(action));
+	}
+
+	public void testRunsAgainAfterFailure() throws IOException {
+		SingleFlight<String> flight = new SingleFlight<String>();
+		try {
+			flight.execute(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					throw new IOException("failed");
+				}
+			});
+			fail("Expected the failure to be thrown");
+		}
+		catch (IOException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		assertEquals("recovered", flight.execute(new Callable<String>() {
+			@Override
+			public String call() {
+				return "recovered";
+			}
+		}));
+	}
+
+	public void testRuntimeExceptionIsKept() throws IOException {
+		SingleFlight<String> flight = new SingleFlight<String>();
+		try {
+			flight.execute(new Callable<String>() {
+				@Override
+				public String call() {
+					throw new IllegalStateException("broken");
+				}
+			});
+			fail("Expected the failure to be thrown");
+		}
+		catch (IllegalStateException e) {
+			assertEquals("broken", e.getMessage());
+		}
+	}
+
+	private static void assertFailed(Future<String> future) throws Exception {
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail("Expected the execution to fail");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+			assertEquals("failed", e.getCause().getMessage());
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+import be.nabu.libs.http.api.client.HTTPClient;
+import be.nabu.libs.resources.api.Resource;
+
+public class WriteBehindTest extends TestCase {
+
+	private RemoteContainer root = new RemoteContainer((HTTPClient) null, "localhost", 80, "/", null, "root", Resource.CONTENT_TYPE_DIRECTORY, new Date(), "/", false, false, false);
+	private List<String> sent = new ArrayList<String>();
+	private QueueExecutor executor = new QueueExecutor();
+
+	public void testLastWriteWins() throws IOException {
+		WriteBehind writes = new WriteBehind(root, 1024, null);
+		RecordingItem item = new RecordingItem("a", 0);
+		writes.submit(item, bytes("1"), executor);
+		writes.submit(item, bytes("2"), executor);
+		writes.submit(item, bytes("3"), executor);
+		// readers see the latest write before it is sent
+		assertEquals("3", new String(writes.get("/a"), "UTF-8"));
+		executor.runAll();
+		// the first write was already on its way, the second one was replaced before it was sent
+		assertEquals(Arrays.asList("a=1", "a=3"), sent);
+		writes.flush();
+		assertNull(writes.get("/a"));
+	}
+
+	public void testPathsAreIndependent() throws IOException {
+		WriteBehind writes = new WriteBehind(root, 1024, null);
+		writes.submit(new RecordingItem("a", 0), bytes("1"), executor);
+		writes.submit(new RecordingItem("b", 0), bytes("2"), executor);
+		executor.runAll();
+		assertEquals(Arrays.asList("a=1", "b=2"), sent);
+		writes.flush();
+	}
+
+	public void testFailureIsReported() throws IOException {
+		WriteBehind writes = new WriteBehind(root, 1024, null);
+		writes.submit(new RecordingItem("a", Integer.MAX_VALUE), bytes("1"), executor);
+		executor.runAll();
+		assertTrue(sent.isEmpty());
+		try {
+			writes.flush();
+			fail("Expected the failed write to be reported");
+		}
+		catch (IOException e) {
+			assertEquals(1, e.getSuppressed().length);
+		}
+		// it is only reported once
+		writes.flush();
+		assertNull(writes.get("/a"));
+	}
+
+	public void testRetry() throws IOException {
+		WriteBehind writes = new WriteBehind(root, 1024, null);
+		writes.submit(new RecordingItem("a", 1), bytes("1"), executor);
+		executor.runAll();
+		assertEquals(Arrays.asList("a=1"), sent);
+		writes.flush();
+	}
+
+	public void testBackPressure() throws Exception {
+		final WriteBehind writes = new WriteBehind(root, 2, null);
+		writes.submit(new RecordingItem("a", 0), bytes("12"), executor);
+		final List<Exception> errors = new ArrayList<Exception>();
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writes.submit(new RecordingItem("b", 0), bytes("34"), executor);
+				}
+				catch (Exception e) {
+					errors.add(e);
+				}
+			}
+		});
+		thread.start();
+		// there is no room until the first write is sent
+		thread.join(200);
+		assertTrue(thread.isAlive());
+		executor.runAll();
+		thread.join(10000);
+		assertFalse(thread.isAlive());
+		assertTrue(errors.isEmpty());
+		executor.runAll();
+		assertEquals(Arrays.asList("a=12", "b=34"), sent);
+		writes.flush();
+	}
+
+	public void testFlushPath() throws Exception {
+		final WriteBehind writes = new WriteBehind(root, 1024, null);
+		// nothing to wait for
+		writes.flush("/a");
+		writes.submit(new RecordingItem("a", 0), bytes("1"), executor);
+		writes.submit(new RecordingItem("b", 0), bytes("2"), executor);
+		final List<Exception> errors = new ArrayList<Exception>();
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writes.flush("/a");
+				}
+				catch (Exception e) {
+					errors.add(e);
+				}
+			}
+		});
+		thread.start();
+		thread.join(200);
+		assertTrue(thread.isAlive());
+		executor.runNext();
+		thread.join(10000);
+		assertFalse(thread.isAlive());
+		assertTrue(errors.isEmpty());
+		// the write to the other path was not waited for
+		assertEquals(Arrays.asList("a=1"), sent);
+		executor.runAll();
+		writes.flush();
+	}
+
+	private static byte [] bytes(String content) {
+		try {
+			return content.getBytes("UTF-8");
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private class RecordingItem extends RemoteWritableItem {
+		private int failures;
+
+		RecordingItem(String name, int failures) {
+			super(root, name, "text/plain", new Date(), "/" + name, 0l, null, null);
+			this.failures = failures;
+		}
+
+		@Override
+		void put(byte [] content) throws IOException {
+			if (failures > 0) {
+				failures--;
+				throw new IOException("Unavailable");
+			}
+			synchronized(sent) {
+				sent.add(getName() + "=" + new String(content, "UTF-8"));
+			}
+		}
+	}
+
+	/**
+	 * Runs the scheduled writes on the calling thread when asked to
+	 */
+	private static class QueueExecutor implements Executor {
+		private List<Runnable> tasks = new ArrayList<Runnable>();
+
+		@Override
+		public synchronized void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		private synchronized Runnable poll() {
+			return tasks.isEmpty() ? null : tasks.remove(0);
+		}
+
+		void runNext() {
+			Runnable task = poll();
+			if (task != null) {
+				task.run();
+			}
+		}
+
+		void runAll() {
+			Runnable task;
+			while ((task = poll()) != null) {
+				task.run();
+			}
+		}
+	}
+}
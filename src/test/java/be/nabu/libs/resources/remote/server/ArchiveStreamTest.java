@@ -0,0 +1,141 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+import be.nabu.libs.resources.ResourceFactory;
+import be.nabu.libs.resources.ResourceUtils;
+import be.nabu.libs.resources.api.ManageableContainer;
+import be.nabu.libs.resources.api.Resource;
+
+public class ArchiveStreamTest extends TestCase {
+
+	private File folder;
+	private ManageableContainer<?> target;
+
+	@Override
+	protected void setUp() throws IOException {
+		folder = Files.createTempDirectory("archive-test").toFile();
+		File root = new File(folder, "target");
+		root.mkdirs();
+		target = (ManageableContainer<?>) ResourceFactory.getInstance().resolve(root.toURI(), null);
+	}
+
+	@Override
+	protected void tearDown() {
+		delete(folder);
+	}
+
+	public void testExtract() throws IOException {
+		Map<String, Resource> extracted = new HashMap<String, Resource>();
+		ArchiveStream.extract(new ByteArrayInputStream(zip("a.txt", "first", "sub/b.txt", "second")), target, extracted);
+		assertTrue(extracted.containsKey("a.txt"));
+		assertTrue(extracted.containsKey("sub"));
+		assertTrue(extracted.containsKey("sub/b.txt"));
+		assertEquals("second", new String(Files.readAllBytes(new File(folder, "target/sub/b.txt").toPath()), "UTF-8"));
+	}
+
+	public void testRejectParent() throws IOException {
+		assertRejected("../escaped.txt");
+		assertRejected("sub/../../escaped.txt");
+		assertRejected("..\\escaped.txt");
+		assertFalse(new File(folder, "escaped.txt").exists());
+	}
+
+	public void testRejectCurrent() throws IOException {
+		assertRejected("./sub/file.txt");
+		assertRejected("sub//file.txt");
+	}
+
+	public void testLeadingSlashStaysInside() throws IOException {
+		Map<String, Resource> extracted = new HashMap<String, Resource>();
+		ArchiveStream.extract(new ByteArrayInputStream(zip("/absolute.txt", "content")), target, extracted);
+		assertNotNull(ResourceUtils.resolve(target, "absolute.txt"));
+		assertTrue(new File(folder, "target/absolute.txt").isFile());
+	}
+
+	public void testArchive() throws IOException {
+		ArchiveStream.extract(new ByteArrayInputStream(zip("a.txt", "first", "sub/b.txt", "second", ".hidden", "secret")), target, new HashMap<String, Resource>());
+		Map<String, String> archived = new LinkedHashMap<String, String>();
+		ZipInputStream zip = new ZipInputStream(new ArchiveStream(target));
+		try {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+				byte [] bytes = new byte[1024];
+				int read;
+				while ((read = zip.read(bytes)) > 0) {
+					output.write(bytes, 0, read);
+				}
+				archived.put(entry.getName(), new String(output.toByteArray(), "UTF-8"));
+			}
+		}
+		finally {
+			zip.close();
+		}
+		// hidden resources are left out, as they are in listings
+		assertEquals(3, archived.size());
+		assertEquals("first", archived.get("a.txt"));
+		assertEquals("", archived.get("sub/"));
+		assertEquals("second", archived.get("sub/b.txt"));
+	}
+
+	private void assertRejected(String name) throws IOException {
+		try {
+			ArchiveStream.extract(new ByteArrayInputStream(zip(name, "content")), target, new HashMap<String, Resource>());
+			fail("Expected the path to be rejected: " + name);
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid path in archive"));
+		}
+	}
+
+	private static byte [] zip(String...namesAndContents) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(output);
+		for (int i = 0; i < namesAndContents.length; i += 2) {
+			zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+			zip.write(namesAndContents[i + 1].getBytes("UTF-8"));
+			zip.closeEntry();
+		}
+		zip.close();
+		return output.toByteArray();
+	}
+
+	private static void delete(File file) {
+		File [] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,139 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.resources.remote.server;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class ChangeLogTest extends TestCase {
+
+	public void testChanges() {
+		ChangeLog log = new ChangeLog(10);
+		String token = log.getToken();
+		log.record("/a.txt", false);
+		log.record("folder/b.txt/", false);
+		log.record("a.txt", true);
+		Map<String, Boolean> changes = log.getChanges(token, "/");
+		// only the latest change per path, in the order of those latest changes
+		assertEquals(Arrays.asList("folder/b.txt", "a.txt"), Arrays.asList(changes.keySet().toArray()));
+		assertFalse(changes.get("folder/b.txt"));
+		assertTrue(changes.get("a.txt"));
+	}
+
+	public void testSinceToken() {
+		ChangeLog log = new ChangeLog(10);
+		log.record("a.txt", false);
+		String token = log.getToken();
+		assertTrue(log.getChanges(token, "").isEmpty());
+		log.record("b.txt", false);
+		assertEquals(Arrays.asList("b.txt"), Arrays.asList(log.getChanges(token, "").keySet().toArray()));
+		assertFalse(token.equals(log.getToken()));
+	}
+
+	public void testSubtree() {
+		ChangeLog log = new ChangeLog(10);
+		String token = log.getToken();
+		log.record("folder/a.txt", false);
+		log.record("folder", false);
+		log.record("folder2/b.txt", false);
+		log.record("other.txt", false);
+		assertEquals(Arrays.asList("folder/a.txt", "folder"), Arrays.asList(log.getChanges(token, "/folder/").keySet().toArray()));
+		assertTrue(log.getChanges(token, "folder/sub").isEmpty());
+		assertEquals(4, log.getChanges(token, "").size());
+	}
+
+	public void testSubtreeChange() {
+		ChangeLog log = new ChangeLog(10);
+		String token = log.getToken();
+		log.record("other.txt", false);
+		log.recordSubtree("/folder/");
+		// anyone following the folder, something in it or something around it has to reload
+		assertNull(log.getChanges(token, "folder"));
+		assertNull(log.getChanges(token, "folder/sub"));
+		assertNull(log.getChanges(token, ""));
+		assertEquals(Arrays.asList("other.txt"), Arrays.asList(log.getChanges(token, "other.txt").keySet().toArray()));
+		assertTrue(log.getChanges(token, "folder2").isEmpty());
+		// once past it, the journal can answer again
+		assertTrue(log.getChanges(log.getToken(), "folder").isEmpty());
+	}
+
+	public void testTruncated() {
+		ChangeLog log = new ChangeLog(2);
+		String token = log.getToken();
+		log.record("a.txt", false);
+		String partial = log.getToken();
+		log.record("b.txt", false);
+		log.record("c.txt", false);
+		// the change to a.txt is no longer known, so the client has to reload
+		assertNull(log.getChanges(token, ""));
+		assertEquals(2, log.getChanges(partial, "").size());
+	}
+
+	public void testUnknownToken() {
+		ChangeLog log = new ChangeLog(10);
+		log.record("a.txt", false);
+		assertNull(log.getChanges(null, ""));
+		assertNull(log.getChanges("garbage", ""));
+		// a token from another journal, e.g. before a restart
+		assertNull(log.getChanges(new ChangeLog(10).getToken(), ""));
+		// a token from the future
+		String token = log.getToken();
+		assertNull(log.getChanges(token.substring(0, token.lastIndexOf('-') + 1) + "5", ""));
+	}
+
+	public void testAwaitTimeout() throws InterruptedException {
+		ChangeLog log = new ChangeLog(10);
+		String token = log.getToken();
+		log.record("other/a.txt", false);
+		long started = System.currentTimeMillis();
+		// changes elsewhere don't wake us up
+		assertFalse(log.await(token, "folder", 200));
+		assertTrue(System.currentTimeMillis() - started >= 200);
+	}
+
+	public void testAwaitChange() throws InterruptedException {
+		final ChangeLog log = new ChangeLog(10);
+		String token = log.getToken();
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				log.record("folder/a.txt", false);
+			}
+		});
+		thread.start();
+		long started = System.currentTimeMillis();
+		assertTrue(log.await(token, "folder", 10000));
+		assertTrue(System.currentTimeMillis() - started < 10000);
+		thread.join();
+	}
+
+	public void testAwaitReset() throws InterruptedException {
+		ChangeLog log = new ChangeLog(10);
+		// a token we can't answer returns immediately so the client can reload
+		assertTrue(log.await("garbage", "", 10000));
+	}
+}
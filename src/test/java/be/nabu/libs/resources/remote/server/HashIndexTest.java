@@ -0,0 +1,127 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.resources.remote.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+public class HashIndexTest extends TestCase {
+
+	private File folder;
+
+	@Override
+	protected void setUp() throws IOException {
+		folder = Files.createTempDirectory("hash-index-test").toFile();
+	}
+
+	@Override
+	protected void tearDown() {
+		for (File file : folder.listFiles()) {
+			file.delete();
+		}
+		folder.delete();
+	}
+
+	public void testGet() {
+		HashIndex index = new HashIndex(null);
+		Date lastModified = new Date(1000);
+		index.put("file:/a", 10, lastModified, "abc");
+		assertEquals("abc", index.get("file:/a", 10, lastModified));
+		assertNull(index.get("file:/b", 10, lastModified));
+		assertNull(index.get("file:/a", 10, null));
+	}
+
+	public void testChangedMetadata() {
+		HashIndex index = new HashIndex(null);
+		index.put("file:/a", 10, new Date(1000), "abc");
+		assertNull(index.get("file:/a", 11, new Date(1000)));
+		// the stale hash is gone, even if the metadata is back to what it was
+		assertNull(index.get("file:/a", 10, new Date(1000)));
+		index.put("file:/b", 10, new Date(1000), "def");
+		assertNull(index.get("file:/b", 10, new Date(2000)));
+	}
+
+	public void testWithoutTimestamp() {
+		HashIndex index = new HashIndex(null);
+		index.put("file:/a", 10, null, "abc");
+		index.put("file:/b", 10, new Date(1000), null);
+		assertNull(index.get("file:/a", 10, new Date(1000)));
+		assertNull(index.get("file:/b", 10, new Date(1000)));
+	}
+
+	public void testInvalidate() {
+		HashIndex index = new HashIndex(null);
+		Date lastModified = new Date(1000);
+		index.put("file:/folder", 10, lastModified, "1");
+		index.put("file:/folder/a", 10, lastModified, "2");
+		index.put("file:/folder/sub/b", 10, lastModified, "3");
+		index.put("file:/folder2/c", 10, lastModified, "4");
+		index.put("file:/folder-d", 10, lastModified, "5");
+		index.invalidate("file:/folder/");
+		assertNull(index.get("file:/folder", 10, lastModified));
+		assertNull(index.get("file:/folder/a", 10, lastModified));
+		assertNull(index.get("file:/folder/sub/b", 10, lastModified));
+		// siblings that merely share the prefix are left alone
+		assertEquals("4", index.get("file:/folder2/c", 10, lastModified));
+		assertEquals("5", index.get("file:/folder-d", 10, lastModified));
+	}
+
+	public void testSaveAndLoad() {
+		File file = new File(folder, "hashes");
+		HashIndex index = new HashIndex(file);
+		index.put("file:/a", 10, new Date(1000), "abc");
+		index.put("file:/with\ttab", 20, new Date(2000), "def");
+		index.save();
+		assertTrue(file.isFile());
+		assertFalse(new File(folder, "hashes.tmp").exists());
+
+		HashIndex loaded = new HashIndex(file);
+		assertEquals("abc", loaded.get("file:/a", 10, new Date(1000)));
+		assertEquals("def", loaded.get("file:/with\ttab", 20, new Date(2000)));
+	}
+
+	public void testSaveOnlyWhenChanged() {
+		File file = new File(folder, "hashes");
+		HashIndex index = new HashIndex(file);
+		index.save();
+		assertFalse(file.exists());
+		index.put("file:/a", 10, new Date(1000), "abc");
+		index.save();
+		file.delete();
+		// nothing changed since the last save
+		index.save();
+		assertFalse(file.exists());
+		index.invalidate("file:/a");
+		index.save();
+		assertTrue(file.isFile());
+		assertNull(new HashIndex(file).get("file:/a", 10, new Date(1000)));
+	}
+
+	public void testCorruptFile() throws IOException {
+		File file = new File(folder, "hashes");
+		Files.write(file.toPath(), "abc\tnot a number\t1000\tfile:/a\nshort line\n".getBytes("UTF-8"));
+		// an unreadable index is not fatal, we simply start over
+		HashIndex index = new HashIndex(file);
+		assertNull(index.get("file:/a", 10, new Date(1000)));
+	}
+}
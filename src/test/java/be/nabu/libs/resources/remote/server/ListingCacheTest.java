@@ -0,0 +1,153 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.resources.remote.server;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import be.nabu.libs.resources.remote.server.ListingCache.Cached;
+
+public class ListingCacheTest extends TestCase {
+
+	private ExecutorService executors = Executors.newCachedThreadPool();
+
+	@Override
+	protected void tearDown() {
+		executors.shutdownNow();
+	}
+
+	public void testGet() throws IOException {
+		ListingCache cache = new ListingCache(1024 * 1024, 60000, false);
+		// a miss means we have to compute it
+		assertNull(cache.get("key", null));
+		cache.put("key", "/folder", "\"v1\"", null, new byte[] { 1, 2, 3 });
+		Cached cached = cache.get("key", null);
+		assertNotNull(cached);
+		assertEquals("\"v1\"", cached.getVersion());
+		assertEquals(3, cached.getContent().length);
+	}
+
+	public void testMaxAge() throws IOException, InterruptedException {
+		ListingCache cache = new ListingCache(1024 * 1024, 50, false);
+		assertNull(cache.get("key", null));
+		cache.put("key", "/folder", "\"v1\"", null, new byte[10]);
+		Thread.sleep(100);
+		assertNull(cache.get("key", null));
+	}
+
+	public void testFingerprint() throws IOException {
+		ListingCache cache = new ListingCache(1024 * 1024, 60000, true);
+		assertTrue(cache.isValidating());
+		assertNull(cache.get("key", "a"));
+		cache.put("key", "/folder", "\"v1\"", "a", new byte[10]);
+		assertNotNull(cache.get("key", "a"));
+		// the backend changed underneath us
+		assertNull(cache.get("key", "b"));
+		cache.abandon("key");
+		assertNull(cache.get("key", "a"));
+	}
+
+	public void testInvalidate() throws IOException {
+		ListingCache cache = new ListingCache(1024 * 1024, 60000, false);
+		fill(cache, "root", "/");
+		fill(cache, "folder", "/folder");
+		fill(cache, "sub", "/folder/sub");
+		fill(cache, "sibling", "/folder2");
+		cache.invalidate("folder/");
+		// ancestors and descendants are dropped, a sibling that shares the prefix is not
+		assertNull(cache.get("root", null));
+		assertNull(cache.get("folder", null));
+		assertNull(cache.get("sub", null));
+		assertNotNull(cache.get("sibling", null));
+	}
+
+	public void testInvalidatedWhileComputing() throws IOException {
+		ListingCache cache = new ListingCache(1024 * 1024, 60000, false);
+		assertNull(cache.get("key", null));
+		cache.invalidate("/folder/a.txt");
+		// the result is handed out but not kept, it may already be outdated
+		assertNotNull(cache.put("key", "/folder", "\"v1\"", null, new byte[10]));
+		assertNull(cache.get("key", null));
+	}
+
+	public void testEviction() throws IOException {
+		// every entry weighs 256 on top of its content, so three of them fit
+		ListingCache cache = new ListingCache(1100, 60000, false);
+		assertEquals(275, cache.getMaxEntrySize());
+		fill(cache, "first", "/first");
+		fill(cache, "second", "/second");
+		fill(cache, "third", "/third");
+		// touching the first makes the second the least recently used
+		assertNotNull(cache.get("first", null));
+		fill(cache, "fourth", "/fourth");
+		assertNull(cache.get("second", null));
+		cache.abandon("second");
+		assertNotNull(cache.get("first", null));
+		assertNotNull(cache.get("fourth", null));
+	}
+
+	public void testSharedComputation() throws Exception {
+		final ListingCache cache = new ListingCache(1024 * 1024, 60000, false);
+		assertNull(cache.get("key", null));
+		Future<Cached> waiter = executors.submit(new Callable<Cached>() {
+			@Override
+			public Cached call() throws Exception {
+				return cache.get("key", null);
+			}
+		});
+		Thread.sleep(100);
+		assertFalse(waiter.isDone());
+		Cached cached = cache.put("key", "/folder", "\"v1\"", null, new byte[10]);
+		assertSame(cached, waiter.get());
+	}
+
+	public void testAbandonedComputation() throws Exception {
+		final ListingCache cache = new ListingCache(1024 * 1024, 60000, false);
+		assertNull(cache.get("key", null));
+		Future<Cached> waiter = executors.submit(new Callable<Cached>() {
+			@Override
+			public Cached call() throws Exception {
+				return cache.get("key", null);
+			}
+		});
+		Thread.sleep(100);
+		cache.abandon("key", true);
+		// the waiter computes it on its own instead of waiting for another round
+		assertNull(waiter.get());
+		assertTrue(cache.isOversized("key"));
+		assertFalse(cache.isOversized("other"));
+	}
+
+	public void testOversizedExpires() throws InterruptedException {
+		ListingCache cache = new ListingCache(1024 * 1024, 50, false);
+		cache.abandon("key", true);
+		assertTrue(cache.isOversized("key"));
+		Thread.sleep(100);
+		assertFalse(cache.isOversized("key"));
+	}
+
+	private static void fill(ListingCache cache, String key, String path) throws IOException {
+		assertNull(cache.get(key, null));
+		cache.put(key, path, "\"" + key + "\"", null, new byte[100]);
+	}
+}
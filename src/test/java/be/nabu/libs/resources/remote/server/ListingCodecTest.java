@@ -0,0 +1,211 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+public class ListingCodecTest extends TestCase {
+
+	public void testRoundTrip() throws IOException {
+		Listing listing = new Listing();
+		listing.setManageable(true);
+		listing.setPath("/folder");
+		listing.setVersion("v1");
+		listing.setToken("abc-12");
+
+		Entry item = new Entry();
+		item.setName("h\u00e9llo.txt");
+		item.setPath("/folder/h\u00e9llo.txt");
+		item.setContentType("text/plain");
+		item.setHash("0123456789abcdef");
+		item.setSize(300l);
+		item.setLastModified(new Date(1234567890123l));
+		item.setWritable(true);
+		item.setContent("inline".getBytes("UTF-8"));
+		listing.getEntries().add(item);
+
+		Entry folder = new Entry();
+		folder.setName("sub");
+		folder.setPath("/folder/sub");
+		folder.setContentType("application/directory");
+		Listing children = new Listing();
+		children.setPath("/folder/sub");
+		Entry child = new Entry();
+		child.setName("child");
+		children.getEntries().add(child);
+		folder.setChildren(children);
+		listing.getEntries().add(folder);
+
+		Listing read = roundTrip(listing);
+		assertTrue(read.isManageable());
+		assertEquals("/folder", read.getPath());
+		assertEquals("v1", read.getVersion());
+		assertEquals("abc-12", read.getToken());
+		assertNull(read.getNext());
+		assertEquals(2, read.getEntries().size());
+
+		Entry readItem = read.getEntries().get(0);
+		assertEquals("h\u00e9llo.txt", readItem.getName());
+		assertEquals("/folder/h\u00e9llo.txt", readItem.getPath());
+		assertEquals("text/plain", readItem.getContentType());
+		assertEquals("0123456789abcdef", readItem.getHash());
+		assertEquals(Long.valueOf(300), readItem.getSize());
+		assertEquals(new Date(1234567890123l), readItem.getLastModified());
+		assertTrue(readItem.isWritable());
+		assertTrue(Arrays.equals("inline".getBytes("UTF-8"), readItem.getContent()));
+		assertNull(readItem.getChildren());
+
+		Entry readFolder = read.getEntries().get(1);
+		assertEquals("sub", readFolder.getName());
+		assertNotNull(readFolder.getChildren());
+		assertEquals("/folder/sub", readFolder.getChildren().getPath());
+		assertEquals(1, readFolder.getChildren().getEntries().size());
+		assertEquals("child", readFolder.getChildren().getEntries().get(0).getName());
+	}
+
+	public void testNulls() throws IOException {
+		Listing listing = new Listing();
+		Entry entry = new Entry();
+		entry.setSize(0l);
+		entry.setContent(new byte[0]);
+		entry.setWritable(false);
+		listing.getEntries().add(entry);
+		listing.getEntries().add(new Entry());
+
+		Listing read = roundTrip(listing);
+		assertFalse(read.isManageable());
+		assertNull(read.getPath());
+		assertNull(read.getVersion());
+		assertNull(read.getToken());
+		assertEquals(2, read.getEntries().size());
+
+		// zero and null are different values
+		Entry empty = read.getEntries().get(0);
+		assertEquals(Long.valueOf(0), empty.getSize());
+		assertNotNull(empty.getContent());
+		assertEquals(0, empty.getContent().length);
+		assertFalse(empty.isWritable());
+
+		Entry blank = read.getEntries().get(1);
+		assertNull(blank.getName());
+		assertNull(blank.getPath());
+		assertNull(blank.getContentType());
+		assertNull(blank.getHash());
+		assertNull(blank.getSize());
+		assertNull(blank.getLastModified());
+		assertNull(blank.getContent());
+		assertNull(blank.getChildren());
+		assertTrue(blank.isWritable());
+	}
+
+	public void testLargeNumbers() throws IOException {
+		Listing listing = new Listing();
+		Entry entry = new Entry();
+		entry.setSize(Long.MAX_VALUE - 1);
+		entry.setLastModified(new Date(0));
+		listing.getEntries().add(entry);
+		Entry read = roundTrip(listing).getEntries().get(0);
+		assertEquals(Long.valueOf(Long.MAX_VALUE - 1), read.getSize());
+		assertEquals(new Date(0), read.getLastModified());
+	}
+
+	public void testSkipChildren() throws IOException {
+		Listing listing = new Listing();
+		Entry folder = new Entry();
+		folder.setName("folder");
+		folder.setChildren(new Listing());
+		folder.getChildren().getEntries().add(new Entry());
+		listing.getEntries().add(folder);
+		Entry last = new Entry();
+		last.setName("last");
+		listing.getEntries().add(last);
+
+		ListingCodec.Reader reader = ListingCodec.newReader(new ByteArrayInputStream(write(listing)));
+		try {
+			assertEquals("folder", reader.next().getName());
+			reader.skip();
+			assertEquals("last", reader.next().getName());
+			assertNull(reader.next());
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	public void testInvalidMagic() {
+		try {
+			ListingCodec.read(new ByteArrayInputStream("<listing/>".getBytes()));
+			fail("Expected the content to be rejected");
+		}
+		catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testTruncated() throws IOException {
+		Listing listing = new Listing();
+		listing.setPath("/truncated");
+		listing.getEntries().add(new Entry());
+		byte [] bytes = write(listing);
+		try {
+			ListingCodec.read(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)));
+			fail("Expected the truncated listing to be rejected");
+		}
+		catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testSetVersion() throws IOException {
+		Listing listing = new Listing();
+		listing.setPath("/folder");
+		listing.setToken("abc-12");
+		Entry item = new Entry();
+		item.setName("a.txt");
+		item.setSize(10l);
+		listing.getEntries().add(item);
+		byte [] original = write(listing);
+		byte [] versioned = ListingCodec.setVersion(original, "\"v1\"");
+		Listing read = ListingCodec.read(new ByteArrayInputStream(versioned));
+		assertEquals("\"v1\"", read.getVersion());
+		assertEquals("/folder", read.getPath());
+		assertEquals("abc-12", read.getToken());
+		assertEquals(1, read.getEntries().size());
+		assertEquals("a.txt", read.getEntries().get(0).getName());
+		// the entries are copied as they are
+		int offset = ListingCodec.getBodyOffset(original), versionedOffset = ListingCodec.getBodyOffset(versioned);
+		assertTrue(versionedOffset > offset);
+		assertTrue(Arrays.equals(Arrays.copyOfRange(original, offset, original.length), Arrays.copyOfRange(versioned, versionedOffset, versioned.length)));
+	}
+
+	private static byte [] write(Listing listing) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ListingCodec.write(listing, output);
+		return output.toByteArray();
+	}
+
+	private static Listing roundTrip(Listing listing) throws IOException {
+		return ListingCodec.read(new ByteArrayInputStream(write(listing)));
+	}
+}
@@ -0,0 +1,99 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.resources.remote.server;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+public class ResourceRESTTest extends TestCase {
+
+	public void testNoRange() {
+		assertNull(ResourceREST.getRange(null, 100));
+		assertNull(ResourceREST.getRange("items=0-10", 100));
+		assertNull(ResourceREST.getRange("bytes=abc-def", 100));
+		assertNull(ResourceREST.getRange("bytes=-", 100));
+		// multiple ranges are answered with the full content
+		assertNull(ResourceREST.getRange("bytes=0-10,20-30", 100));
+	}
+
+	public void testRange() {
+		assertRange(0, 9, ResourceREST.getRange("bytes=0-9", 100));
+		assertRange(10, 99, ResourceREST.getRange("bytes=10-", 100));
+		// the end is capped to the size
+		assertRange(50, 99, ResourceREST.getRange("bytes=50-1000", 100));
+		assertRange(5, 5, ResourceREST.getRange(" bytes= 5-5 ", 100));
+	}
+
+	public void testSuffixRange() {
+		assertRange(90, 99, ResourceREST.getRange("bytes=-10", 100));
+		// a suffix larger than the content is the whole content
+		assertRange(0, 99, ResourceREST.getRange("bytes=-1000", 100));
+	}
+
+	public void testUnsatisfiableRange() {
+		// the caller answers these with a 416
+		long [] range = ResourceREST.getRange("bytes=100-", 100);
+		assertTrue(range[0] >= 100);
+		range = ResourceREST.getRange("bytes=20-10", 100);
+		assertTrue(range[0] > range[1]);
+	}
+
+	public void testNotModifiedByETag() {
+		Date lastModified = new Date();
+		assertTrue(ResourceREST.isNotModified("\"abc\"", lastModified, "\"abc\"", null));
+		assertTrue(ResourceREST.isNotModified("\"abc\"", lastModified, "\"def\", \"abc\"", null));
+		assertTrue(ResourceREST.isNotModified("\"abc\"", lastModified, "*", null));
+		// weak comparison
+		assertTrue(ResourceREST.isNotModified("W/\"1-2\"", lastModified, "\"1-2\"", null));
+		assertTrue(ResourceREST.isNotModified("\"abc\"", lastModified, "W/\"abc\"", null));
+		assertFalse(ResourceREST.isNotModified("\"abc\"", lastModified, "\"def\"", null));
+		assertFalse(ResourceREST.isNotModified(null, lastModified, "\"abc\"", null));
+	}
+
+	public void testETagTakesPrecedence() {
+		Date lastModified = new Date(1000000000000l);
+		assertFalse(ResourceREST.isNotModified("\"abc\"", lastModified, "\"def\"", format(new Date(lastModified.getTime() + 60000))));
+	}
+
+	public void testNotModifiedByDate() {
+		// the http date has second precision
+		Date lastModified = new Date(1000000000500l);
+		assertTrue(ResourceREST.isNotModified(null, lastModified, null, format(lastModified)));
+		assertTrue(ResourceREST.isNotModified(null, lastModified, null, format(new Date(lastModified.getTime() + 60000))));
+		assertFalse(ResourceREST.isNotModified(null, lastModified, null, format(new Date(lastModified.getTime() - 60000))));
+		assertFalse(ResourceREST.isNotModified(null, lastModified, null, "not a date"));
+		assertFalse(ResourceREST.isNotModified(null, null, null, format(lastModified)));
+		assertFalse(ResourceREST.isNotModified(null, lastModified, null, null));
+	}
+
+	private static void assertRange(long from, long to, long [] range) {
+		assertNotNull(range);
+		assertEquals(Arrays.toString(new long [] { from, to }), Arrays.toString(range));
+	}
+
+	private static String format(Date date) {
+		SimpleDateFormat formatter = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		formatter.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return formatter.format(date);
+	}
+}
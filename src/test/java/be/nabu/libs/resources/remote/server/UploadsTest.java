@@ -0,0 +1,142 @@
+/*
+* Copyright (C) 2016 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.resources.remote.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import be.nabu.libs.http.HTTPException;
+import be.nabu.utils.io.IOUtils;
+
+public class UploadsTest extends TestCase {
+
+	private File folder;
+
+	@Override
+	protected void setUp() throws IOException {
+		folder = Files.createTempDirectory("uploads-test").toFile();
+	}
+
+	@Override
+	protected void tearDown() {
+		delete(folder);
+	}
+
+	public void testUpload() throws IOException {
+		Uploads uploads = new Uploads(folder);
+		String id = uploads.start("folder/target.txt");
+		assertEquals("folder/target.txt", uploads.getPath(id));
+		// parts can arrive in any order
+		uploads.putPart(id, 1, new ByteArrayInputStream("second".getBytes("UTF-8")));
+		uploads.putPart(id, 0, new ByteArrayInputStream("first-".getBytes("UTF-8")));
+		assertEquals(Arrays.asList(0, 1), uploads.getParts(id));
+		assertEquals("first-second", read(uploads.open(id, 2)));
+	}
+
+	public void testRetryPart() throws IOException {
+		Uploads uploads = new Uploads(folder);
+		String id = uploads.start("target.txt");
+		uploads.putPart(id, 0, new ByteArrayInputStream("broken".getBytes("UTF-8")));
+		uploads.putPart(id, 0, new ByteArrayInputStream("fixed".getBytes("UTF-8")));
+		assertEquals(Arrays.asList(0), uploads.getParts(id));
+		assertEquals("fixed", read(uploads.open(id, 1)));
+	}
+
+	public void testMissingPart() throws IOException {
+		Uploads uploads = new Uploads(folder);
+		String id = uploads.start("target.txt");
+		uploads.putPart(id, 0, new ByteArrayInputStream("first".getBytes("UTF-8")));
+		uploads.putPart(id, 2, new ByteArrayInputStream("third".getBytes("UTF-8")));
+		assertCode(409, id, 3, uploads);
+	}
+
+	public void testInvalidPart() throws IOException {
+		Uploads uploads = new Uploads(folder);
+		String id = uploads.start("target.txt");
+		try {
+			uploads.putPart(id, -1, new ByteArrayInputStream(new byte[0]));
+			fail("A negative part number should be rejected");
+		}
+		catch (HTTPException e) {
+			assertEquals(400, e.getCode());
+		}
+	}
+
+	public void testInvalidId() throws IOException {
+		Uploads uploads = new Uploads(folder);
+		// the id must not be able to escape the staging folder
+		assertCode(400, "../" + folder.getName(), 1, uploads);
+		assertCode(400, null, 1, uploads);
+		assertCode(404, "abc123", 1, uploads);
+	}
+
+	public void testRemove() throws IOException {
+		Uploads uploads = new Uploads(folder);
+		String id = uploads.start("target.txt");
+		uploads.putPart(id, 0, new ByteArrayInputStream("first".getBytes("UTF-8")));
+		uploads.remove(id);
+		assertFalse(new File(folder, id).exists());
+		assertCode(404, id, 1, uploads);
+	}
+
+	public void testSweep() throws IOException, InterruptedException {
+		Uploads uploads = new Uploads(folder, 1000);
+		String abandoned = uploads.start("first.txt");
+		new File(folder, abandoned).setLastModified(System.currentTimeMillis() - 60000);
+		// sweeps are throttled to once per max age
+		Thread.sleep(1100);
+		String active = uploads.start("second.txt");
+		assertFalse(new File(folder, abandoned).exists());
+		assertEquals("second.txt", uploads.getPath(active));
+	}
+
+	private static void assertCode(int code, String id, int amount, Uploads uploads) throws IOException {
+		try {
+			uploads.open(id, amount).close();
+			fail("Expected a " + code + " for upload: " + id);
+		}
+		catch (HTTPException e) {
+			assertEquals(code, e.getCode());
+		}
+	}
+
+	private static String read(InputStream input) throws IOException {
+		try {
+			return new String(IOUtils.toBytes(IOUtils.wrap(input)), "UTF-8");
+		}
+		finally {
+			input.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File [] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}